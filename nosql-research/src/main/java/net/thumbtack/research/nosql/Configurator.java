@@ -22,11 +22,23 @@ public class Configurator {
     private final static String DB_PORT_PROPERTY = "db.port";
     private final static String DB_RETRIES_PROPERTY = "db.retries";
     private final static String DB_SLOW = "db.slow";
+    private final static String DB_MAX_IN_FLIGHT_PROPERTY = "db.maxInFlight";
+    private final static String DB_CONNECTIONS_PER_HOST_PROPERTY = "db.connectionsPerHost";
     private final static String SC_NAME_PROPERTY = "sc.name";
     private final static String SC_THREADS_PROPERTY = "sc.threads";
     private final static String SC_WRITES_PROPERTY = "sc.writes";
     private final static String SC_STRING_SIZE_PROPERTY = "sc.stringSize";
+    private final static String SC_OUTSTANDING_PROPERTY = "sc.outstanding";
+    private final static String SC_INIT_THREADS_PROPERTY = "sc.initThreads";
+    private final static String SC_BATCH_SIZE_PROPERTY = "sc.batchSize";
+    private final static String SC_WARMUP_PROPERTY = "sc.warmup";
+    private final static String SC_DURATION_PROPERTY = "sc.duration";
+    private final static String SC_VIRTUAL_THREADS_PROPERTY = "sc.virtualThreads";
+    private final static String SC_KEYS_PROPERTY = "sc.keys";
+    private final static String SC_RATE_PROPERTY = "sc.rate";
+    private final static String SC_RATE_PROFILE_PROPERTY = "sc.rate.profile";
     private final static String REPORT_FLUSH_INTERVAL_PROPERTY = "report.flushInterval";
+    private final static String REPORT_ALLOCATION_PROPERTY = "report.allocation";
     private String[] hosts;
     private String slow;
     private int hostsIdx = -1;
@@ -41,10 +53,30 @@ public class Configurator {
         }
     }
 
+    private Configurator(ConcurrentMapConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * @return copy of the config with one property overridden, e.g. consistency level of some clients
+     */
+    public Configurator withProperty(String key, String value) {
+        ConcurrentMapConfiguration copy = new ConcurrentMapConfiguration(config);
+        copy.setProperty(key, value);
+        return new Configurator(copy);
+    }
+
     public String getString(String key, String def) {
         return config.getString(key, def);
     }
 
+    /**
+     * @return comma separated values of the property, empty array if it is not set
+     */
+    public String[] getStringArray(String key) {
+        return config.getStringArray(key);
+    }
+
     public int getInt(String key, Integer def) {
         return config.getInteger(key, def);
     }
@@ -53,16 +85,27 @@ public class Configurator {
         return config.getLong(key, def);
     }
 
+    public double getDouble(String key, Double def) {
+        return config.getDouble(key, def);
+    }
+
     public String getDbName() {
         return getString(DB_NAME_PROPERTY, null);
     }
 
+    /**
+     * Override database of the config file, e.g. by noop one for calibration
+     */
+    public void setDbName(String name) {
+        config.setProperty(DB_NAME_PROPERTY, name);
+    }
+
     public String[] getDbHosts() {
         hosts = config.getStringArray(DB_HOST_PROPERTY);
         return hosts;
     }
 
-    public String getNextDbHost(String def) {
+    public synchronized String getNextDbHost(String def) {
         if(hosts == null) {
             getDbHosts();
         }
@@ -94,6 +137,20 @@ public class Configurator {
         return getInt(DB_RETRIES_PROPERTY, def);
     }
 
+    /**
+     * @return maximum count of in-flight asynchronous requests per connection
+     */
+    public int getDbMaxInFlight(int def) {
+        return getInt(DB_MAX_IN_FLIGHT_PROPERTY, def);
+    }
+
+    /**
+     * @return count of pooled connections to every database host
+     */
+    public int getDbConnectionsPerHost(int def) {
+        return getInt(DB_CONNECTIONS_PER_HOST_PROPERTY, def);
+    }
+
     public String getScName() {
         return getString(SC_NAME_PROPERTY, null);
     }
@@ -102,18 +159,88 @@ public class Configurator {
         return getInt(SC_THREADS_PROPERTY, null);
     }
 
+    /**
+     * @return count of actions of the run, unlimited if it is bounded by sc.duration only
+     */
     public long getScWrites() {
-        return getLong(SC_WRITES_PROPERTY, null);
+        return getLong(SC_WRITES_PROPERTY, getScDuration() > 0 ? Long.MAX_VALUE : null);
+    }
+
+    /**
+     * @return duration of measured phase in ms, zero means the run is bounded by sc.writes only
+     */
+    public long getScDuration() {
+        return getLong(SC_DURATION_PROPERTY, 0L);
+    }
+
+    /**
+     * @return true if every scenario should run on its own virtual thread instead of a platform one
+     */
+    public boolean isScVirtualThreads() {
+        return Boolean.parseBoolean(getString(SC_VIRTUAL_THREADS_PROPERTY, "false"));
+    }
+
+    /**
+     * @return name of key access distribution, see {@link net.thumbtack.research.nosql.keys.KeyChooserPool}
+     */
+    public String getScKeys() {
+        return getString(SC_KEYS_PROPERTY, "uniform");
+    }
+
+    /**
+     * @return count of operations kept in flight by every scenario thread, 1 means blocking calls
+     */
+    public int getScOutstanding() {
+        return getInt(SC_OUTSTANDING_PROPERTY, 1);
+    }
+
+    /**
+     * @return count of records written or read by one batch operation, 1 means single record operations
+     */
+    public int getScBatchSize() {
+        return getInt(SC_BATCH_SIZE_PROPERTY, 1);
+    }
+
+    /**
+     * @return count of threads connecting clients in parallel before the run
+     */
+    public int getScInitThreads() {
+        return getInt(SC_INIT_THREADS_PROPERTY, 16);
     }
 
     public long getSCStringSize() {
         return getLong(SC_STRING_SIZE_PROPERTY, null);
     }
 
+    /**
+     * @return target actions per second of open-loop mode, zero means closed loop
+     */
+    public double getScRate() {
+        return getDouble(SC_RATE_PROPERTY, 0.0);
+    }
+
+    /**
+     * @return warm-up duration in ms, "auto" or null if there is no warm-up
+     */
+    public String getScWarmup() {
+        return getString(SC_WARMUP_PROPERTY, null);
+    }
+
+    public String getScRateProfile() {
+        return getString(SC_RATE_PROFILE_PROPERTY, "constant");
+    }
+
     public int getReportFlushInterval() {
         return getInt(REPORT_FLUSH_INTERVAL_PROPERTY, null);
     }
 
+    /**
+     * @return true if heap allocated by every action should be measured
+     */
+    public boolean isReportAllocation() {
+        return Boolean.parseBoolean(getString(REPORT_ALLOCATION_PROPERTY, "false"));
+    }
+
     @Override
     public String toString() {
         return config.getProperties().toString();
@@ -0,0 +1,328 @@
+package net.thumbtack.research.nosql;
+
+import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.clients.ClientException;
+import net.thumbtack.research.nosql.keys.KeySpace;
+import net.thumbtack.research.nosql.payload.PayloadPool;
+import net.thumbtack.research.nosql.report.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.thumbtack.research.nosql.report.Reporter.*;
+
+/**
+ * Preload phase: fills preload.keys records before scenarios start, so measured reads hit real data
+ * instead of missing keys.
+ * <p/>
+ * Records get key space indexes from 0 to preload.keys - 1, the ones scenarios allocate first, and a payload
+ * of sc.payload sizes in the data column. Every of preload.threads clients spread over db.hosts writes batches
+ * of preload.batchSize records as fast as it can.
+ * <p/>
+ * If preload.checkpoint file is set, count of written records is saved there with the key space seed
+ * every report.progressInterval ms. The next run with the same sc.keys.seed continues from it and skips
+ * the preload which is finished already, so the database must not be truncated by prepare then.
+ * If preload.verify is set, that count of random preloaded records is read back at the end.
+ */
+public final class Preload {
+    private static final Logger log = LoggerFactory.getLogger(Preload.class);
+
+    private static final String KEYS_PROPERTY = "preload.keys";
+    private static final String THREADS_PROPERTY = "preload.threads";
+    private static final String BATCH_SIZE_PROPERTY = "preload.batchSize";
+    private static final String CHECKPOINT_PROPERTY = "preload.checkpoint";
+    private static final String VERIFY_PROPERTY = "preload.verify";
+    private static final String PROGRESS_INTERVAL_PROPERTY = "report.progressInterval";
+    /** Limit of the default count of clients, which is sc.threads */
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_PROGRESS_INTERVAL = 5000;
+    private static final int BATCH_ATTEMPTS = 3;
+    private static final String CHECKPOINT_SEED = "seed";
+    private static final String CHECKPOINT_DONE = "done";
+    /** Data column of scenarios, their value columns are left empty */
+    private static final String DATA_COLUMN = "2";
+    private static final double BYTES_IN_MB = 1024 * 1024;
+
+    private final KeySpace keySpace;
+    private final PayloadPool payloads;
+    private final long keys;
+    private final int threads;
+    private final int batchSize;
+    private final File checkpoint;
+    private final int verify;
+    private final long progressInterval;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    /** First index of the batch written by every client, Long.MAX_VALUE if there is none */
+    private AtomicLongArray current;
+    private volatile Exception failure;
+
+    public Preload(Configurator config) {
+        keys = config.getLong(KEYS_PROPERTY, 0L);
+        threads = Math.max(1, config.getInt(THREADS_PROPERTY,
+                Math.min(config.getScThreads(), DEFAULT_MAX_THREADS)));
+        batchSize = Math.max(1, config.getInt(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+        String checkpointFile = config.getString(CHECKPOINT_PROPERTY, null);
+        checkpoint = checkpointFile == null || checkpointFile.isEmpty() ? null : new File(checkpointFile);
+        verify = config.getInt(VERIFY_PROPERTY, 0);
+        progressInterval = Math.max(config.getInt(PROGRESS_INTERVAL_PROPERTY, DEFAULT_PROGRESS_INTERVAL), 1);
+        if (keys > 0) {
+            keySpace = KeySpace.get(config);
+            payloads = PayloadPool.get(config);
+            if (checkpoint != null && config.getString(KeySpace.SEED_PROPERTY, null) == null) {
+                log.warn("{} is not set, so keys differ from run to run and preload checkpoint can not be resumed",
+                        KeySpace.SEED_PROPERTY);
+            }
+        } else {
+            keySpace = null;
+            payloads = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return keys > 0;
+    }
+
+    /**
+     * @return count of clients needed by {@link #run(List)}
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Write records not written yet and verify a sample of them. Clients are closed at the end.
+     * @throws RuntimeException if a batch is not written after all attempts, written records are checkpointed
+     */
+    public void run(List<Client> clients) throws InterruptedException {
+        try {
+            long start = loadCheckpoint();
+            if (start < keys) {
+                write(clients, start);
+            } else {
+                log.info("Preload of {} keys is finished by checkpoint {}", keys, checkpoint);
+            }
+            if (verify > 0) {
+                verify(clients.get(0));
+            }
+        } finally {
+            for (Client db : clients) {
+                try {
+                    db.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    log.error(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void write(List<Client> clients, long start) throws InterruptedException {
+        log.info("Preloading keys {}..{} by {} clients in batches of {}", new Object[]{
+                start, keys - 1, clients.size(), batchSize
+        });
+        next.set(start);
+        current = new AtomicLongArray(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            current.set(i, Long.MAX_VALUE);
+        }
+        final CountDownLatch finished = new CountDownLatch(clients.size());
+        ExecutorService threadPool = Executors.newFixedThreadPool(clients.size(), new NamedThreadFactory("preload"));
+        long preloadStart = System.nanoTime();
+        for (int i = 0; i < clients.size(); i++) {
+            final Client db = clients.get(i);
+            final int worker = i;
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeBatches(db, worker);
+                    } catch (Exception e) {
+                        failure = e;
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        long lastProgress = preloadStart;
+        long lastDone = start;
+        try {
+            while (!finished.await(progressInterval, TimeUnit.MILLISECONDS)) {
+                long now = System.nanoTime();
+                long done = getDone();
+                saveCheckpoint(done);
+                log.info("[preload] {} of {} keys, {} keys/sec", new Object[]{
+                        done, keys, String.format("%.1f", (done - lastDone) * 1e9 / (now - lastProgress))
+                });
+                lastProgress = now;
+                lastDone = done;
+            }
+        } finally {
+            threadPool.shutdownNow();
+            saveCheckpoint(getDone());
+        }
+        if (failure != null) {
+            log.error("Preload is stopped at {} keys: {}", getDone(), failure.getMessage());
+            throw new RuntimeException(failure);
+        }
+        long time = System.nanoTime() - preloadStart;
+        log.info("Preloaded {} keys in {}ms: {} keys/sec, {} MB/sec", new Object[]{
+                keys - start,
+                TimeUnit.NANOSECONDS.toMillis(time),
+                String.format("%.1f", (keys - start) * 1e9 / time),
+                String.format("%.2f", bytes.get() / BYTES_IN_MB * 1e9 / time)
+        });
+    }
+
+    private void writeBatches(Client db, int worker) throws ClientException {
+        Map<String, Map<String, ByteBuffer>> batch = new HashMap<>(batchSize * 2);
+        while (failure == null) {
+            long first = claim(worker);
+            if (first >= keys) {
+                break;
+            }
+            long last = Math.min(first + batchSize, keys);
+            for (long idx = first; idx < last; idx++) {
+                ByteBuffer payload = payloads.next();
+                bytes.addAndGet(payload.remaining());
+                batch.put(keySpace.toKey(idx), Collections.singletonMap(DATA_COLUMN, payload));
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    long writeStart = startEvent();
+                    db.writeBatch(batch);
+                    addEvent(STOPWATCH_PRELOAD, writeStart);
+                    break;
+                } catch (ClientException e) {
+                    if (attempt >= BATCH_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.warn("Preload batch from {} failed, retrying: {}", first, e.getMessage());
+                }
+            }
+            batch.clear();
+        }
+        current.set(worker, Long.MAX_VALUE);
+    }
+
+    /**
+     * Take the next batch. Its first index is published before the batch is taken, so {@link #getDone()}
+     * never counts a batch being written.
+     */
+    private long claim(int worker) {
+        while (true) {
+            long first = next.get();
+            current.set(worker, first);
+            if (first >= keys || next.compareAndSet(first, first + batchSize)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * @return count of keys from the beginning which are written for sure
+     */
+    private long getDone() {
+        long done = Math.min(next.get(), keys);
+        for (int i = 0; i < current.length(); i++) {
+            done = Math.min(done, current.get(i));
+        }
+        return done;
+    }
+
+    private void verify(Client db) {
+        Set<String> columns = Collections.singleton(DATA_COLUMN);
+        long missing = 0;
+        for (int i = 0; i < verify; i++) {
+            String key = keySpace.toKey(ThreadLocalRandom.current().nextLong(keys));
+            try {
+                Map<String, ByteBuffer> data = db.read(key, columns);
+                ByteBuffer payload = data == null ? null : data.get(DATA_COLUMN);
+                if (payload == null || !payload.hasRemaining()) {
+                    missing++;
+                    log.debug("Preloaded key {} is missing", key);
+                }
+            } catch (ClientException e) {
+                missing++;
+                log.debug("Preloaded key {} is not read: {}", key, e.getMessage());
+            }
+        }
+        if (missing > 0) {
+            log.warn("Preload verification: {} of {} sampled keys are missing", missing, verify);
+        } else {
+            log.info("Preload verification: all {} sampled keys are present", verify);
+        }
+    }
+
+    /**
+     * @return count of keys written by previous runs
+     */
+    private long loadCheckpoint() {
+        if (checkpoint == null || !checkpoint.exists()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+        if (!String.valueOf(keySpace.getSeed()).equals(properties.getProperty(CHECKPOINT_SEED))) {
+            log.warn("Preload checkpoint {} is written for another key space seed, preload starts from the beginning",
+                    checkpoint);
+            return 0;
+        }
+        long done = Math.min(Long.parseLong(properties.getProperty(CHECKPOINT_DONE, "0")), keys);
+        log.info("Preload checkpoint {}: {} keys are written already", checkpoint, done);
+        return done;
+    }
+
+    /**
+     * Replace checkpoint file at once, so it is never left half-written
+     */
+    private void saveCheckpoint(long done) {
+        if (checkpoint == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(CHECKPOINT_SEED, String.valueOf(keySpace.getSeed()));
+        properties.setProperty(CHECKPOINT_DONE, String.valueOf(done));
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, "preload checkpoint");
+            }
+            Files.move(temp.toPath(), checkpoint.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+    }
+}
@@ -2,18 +2,31 @@ package net.thumbtack.research.nosql;
 
 import net.thumbtack.research.nosql.clients.Client;
 import net.thumbtack.research.nosql.clients.ClientPool;
+import net.thumbtack.research.nosql.load.LoadProfile;
+import net.thumbtack.research.nosql.load.LoadProfilePool;
+import net.thumbtack.research.nosql.load.Schedule;
 import net.thumbtack.research.nosql.report.AggregatedReporter;
+import net.thumbtack.research.nosql.report.Calibration;
+import net.thumbtack.research.nosql.report.KeyRankReporter;
+import net.thumbtack.research.nosql.report.LatencyHistogram;
+import net.thumbtack.research.nosql.report.NamedThreadFactory;
+import net.thumbtack.research.nosql.report.RawEventLog;
+import net.thumbtack.research.nosql.report.VisibilityReporter;
+import net.thumbtack.research.nosql.report.Warmup;
 import net.thumbtack.research.nosql.scenarios.Scenario;
+import net.thumbtack.research.nosql.scenarios.ScenarioContext;
 import net.thumbtack.research.nosql.scenarios.ScenarioPool;
+import net.thumbtack.research.nosql.utils.ValueCodec;
 import org.apache.commons.cli.*;
-import org.javasimon.Split;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static net.thumbtack.research.nosql.report.Reporter.*;
@@ -27,6 +40,7 @@ import static net.thumbtack.research.nosql.report.AggregatedReporter.*;
  * Main class. This is main runnable class.
  * Command line arguments
  *  -c,--config     -   config file name
+ *  -C,--calibrate  -   run scenario against noop client and store harness overhead for sc.threads
  *  -h,--help       -   show help message
  */
 public final class Researcher {
@@ -34,6 +48,7 @@ public final class Researcher {
 
     private static final String CLI_CONFIG = "config";
     private static final String CLI_HELP = "help";
+    private static final String CLI_CALIBRATE = "calibrate";
 
     public static void main(String[] args) throws ParseException {
 
@@ -43,115 +58,335 @@ public final class Researcher {
         if (!isCommandLineValid(commandLine, options)) return;
 
         Configurator config = new Configurator(commandLine.getOptionValue(CLI_CONFIG));
+        boolean calibrate = commandLine.hasOption(CLI_CALIBRATE);
+        Calibration calibration = null;
+        if (calibrate) {
+            log.info("Calibration run with {} threads", config.getScThreads());
+            config.setDbName(ClientPool.DB_NOOP);
+        } else {
+            calibration = Calibration.load(config);
+        }
 
         int threadsCount = config.getScThreads();
 
-        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threadsCount, threadsCount, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>());
+        final Calibration reportCalibration = calibration;
+        final Configurator reportConfig = config;
+        final boolean saveCalibration = calibrate;
+        RunController controller = new RunController(config, new Runnable() {
+            @Override
+            public void run() {
+                log.info("--- Tests complete ---");
+                printReport(reportCalibration);
+                if (saveCalibration) {
+                    Calibration.save(reportConfig);
+                }
+            }
+        });
+        if (controller.isVirtualThreads()) {
+            log.info("Scenarios run on virtual threads");
+            setStriped(true);
+            RawEventLog.setStriped(true);
+        }
 
         AggregatedReporter.configure(config);
+        RawEventLog.configure(config);
+        Warmup.configure(config);
+        KeyRankReporter.configure(config);
 
-        List<Client> dbs = new ArrayList<>(threadsCount);
-        Client db;
+        long startupStart = startEvent();
+        List<Client> dbs = prepareClients(config, threadsCount);
 
-	    log.info("Initializing {} clients...", threadsCount);
-        for (int i=0; i < threadsCount; i++) {
+        LoadProfile loadProfile = null;
+        if (config.getScRate() > 0) {
             try {
-                db = ClientPool.get(config.getDbName());
-                db.init(config);
-                dbs.add(db);
+                loadProfile = LoadProfilePool.get(config.getScRateProfile());
+                loadProfile.init(config);
             } catch (Exception e) {
                 e.printStackTrace();
                 log.error(e.getMessage());
                 throw new RuntimeException(e);
             }
+            log.info("Open-loop mode: {} profile at {} req/sec", config.getScRateProfile(), config.getScRate());
         }
 
         List<Scenario> scs = new ArrayList<>(threadsCount);
+        ScenarioContext context = new ScenarioContext();
 	    log.info("Scheduling tests...");
-	    Split scenarioSplit = startEvent();
         for (Client initDB : dbs) {
             try {
                 Scenario sc = ScenarioPool.get(config.getScName());
-                sc.init(initDB, config);
+                sc.init(initDB, config, context);
                 scs.add(sc);
-                threadPool.submit(sc);
             } catch (Exception e) {
                 e.printStackTrace();
                 log.error(e.getMessage());
                 throw new RuntimeException(e);
             }
         }
+        addEvent(STOPWATCH_STARTUP, startupStart);
+
+        Preload preload = new Preload(config);
+        if (preload.isEnabled()) {
+            try {
+                controller.preload(preload, connectClients(config, preload.getThreads()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                controller.finish();
+                return;
+            }
+        }
 
+        // waits for connections of connect and preload are not waits of the run
+        reset(STOPWATCH_POOL_WAIT);
+	    long scenarioStart = startEvent();
+        if (loadProfile != null) {
+            for (int i = 0; i < scs.size(); i++) {
+                scs.get(i).setSchedule(new Schedule(loadProfile, threadsCount, i, scenarioStart));
+            }
+        }
+        Warmup.start(scenarioStart);
         startFlushTimer(config.getReportFlushInterval());
 
-	    log.info("Running tests with {} actions...", config.getScWrites());
-        while (threadPool.getActiveCount() > 0) {}
-	    addEvent(STOPWATCH_SCENARIO, scenarioSplit);
+        if (config.getScDuration() > 0) {
+            log.info("Running tests for {}ms...", config.getScDuration());
+        } else {
+            log.info("Running tests with {} actions...", config.getScWrites());
+        }
+        controller.start(scs, scenarioStart);
+        try {
+            controller.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            controller.finish();
+        }
+    }
 
-	    log.info("Shutting down clients...");
-        threadPool.shutdown();
+    /**
+     * Prepare database once and connect all clients in parallel
+     */
+    private static List<Client> prepareClients(final Configurator config, int threadsCount) {
+        log.info("Preparing database...");
+        try {
+            long prepareStart = startEvent();
+            ClientPool.get(config.getDbName()).prepare(config);
+            addEvent(STOPWATCH_PREPARE, prepareStart);
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
 
-        log.info("--- Tests complete ---");
+        return connectClients(config, threadsCount);
+    }
 
-	    printReport();
+    /**
+     * Connect clients in parallel, they are spread over db.hosts
+     */
+    private static List<Client> connectClients(final Configurator config, int threadsCount) {
+        log.info("Initializing {} clients...", threadsCount);
+        ExecutorService initPool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threadsCount, config.getScInitThreads())),
+                new NamedThreadFactory("init")
+        );
+        List<Future<Client>> futures = new ArrayList<>(threadsCount);
+        for (int i=0; i < threadsCount; i++) {
+            final String host = config.getNextDbHost(null);
+            futures.add(initPool.submit(new Callable<Client>() {
+                @Override
+                public Client call() throws Exception {
+                    long connectStart = startEvent();
+                    Client db = ClientPool.get(config.getDbName());
+                    db.init(config, host);
+                    addEvent(STOPWATCH_CONNECT, connectStart);
+                    return db;
+                }
+            }));
+        }
+        List<Client> dbs = new ArrayList<>(threadsCount);
+        try {
+            for (Future<Client> future : futures) {
+                dbs.add(future.get());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        } finally {
+            initPool.shutdown();
+        }
+        return dbs;
     }
 
 	private static Options getOptions() {
         return  new Options()
                 .addOption(CLI_CONFIG.substring(0, 1), CLI_CONFIG, true, "Config file name")
+                .addOption(CLI_CALIBRATE.substring(0, 1).toUpperCase(), CLI_CALIBRATE, false,
+                        "Measure harness overhead using noop client")
                 .addOption(CLI_HELP.substring(0, 1), CLI_HELP, false, "Show this is help");
     }
 
     private static boolean isCommandLineValid(CommandLine commandLine, Options options) {
         if (commandLine.hasOption(CLI_HELP)
                 || !commandLine.hasOption(CLI_CONFIG)) {
-            new HelpFormatter().printHelp("nosql-research -c <config file name> [-h]", options);
+            new HelpFormatter().printHelp("nosql-research -c <config file name> [-C] [-h]", options);
             return false;
         }
         return true;
     }
 
-	private static void printReport() {
+	private static void printReport(Calibration calibration) {
 		AggregatedReporter.stop();
+		RawEventLog.close();
 
+        // startup is recorded before warm-up starts
+        LatencyHistogram connect = getHistogram(PHASE_MEASURE, STOPWATCH_CONNECT);
+        log.info("Startup time: {}ms (prepare {}ms, connect mean={}ms max={}ms)", new Object[]{
+                toMillis(getHistogram(PHASE_MEASURE, STOPWATCH_STARTUP).getTotal()),
+                toMillis(getHistogram(PHASE_MEASURE, STOPWATCH_PREPARE).getTotal()),
+                toMillis(connect.getMean()),
+                toMillis(connect.getMax())
+        });
+        if (Warmup.isFinished()) {
+            printWarmup();
+            log.info("--- Measured phase ---");
+        }
         log.info("Total time: {}ms", getTotal(STOPWATCH_SCENARIO));
-		log.info("Total writes: " + getCount(STOPWATCH_WRITE));
-		log.info("Total reads: " + getCount(STOPWATCH_READ));
+		long writes = getCount(STOPWATCH_WRITE) + getCount(STOPWATCH_BATCH_WRITE_KEY);
+		log.info("Total writes: " + writes);
+		log.info("Total reads: " + (getCount(STOPWATCH_READ) + getCount(STOPWATCH_BATCH_READ_KEY)));
 		log.info("Total failures: {} ({}%)",
 				new Object[] {
 						getCount(STOPWATCH_FAILURE),
-						(double)getCount(STOPWATCH_FAILURE)/ getCount(STOPWATCH_WRITE) * 100
+						(double)getCount(STOPWATCH_FAILURE)/ writes * 100
 				}
 		);
 		log.info("Incomplete writes: {} ({}%)",
 				new Object[] {
 						getCount(STOPWATCH_VALUE_FAILURE),
-						(double)getCount(STOPWATCH_VALUE_FAILURE)/ getCount(STOPWATCH_WRITE) * 100
+						(double)getCount(STOPWATCH_VALUE_FAILURE)/ writes * 100
 				}
 		);
 		log.info("Average throughput: {} req/sec", getCount(STOPWATCH_ACTION) / getTotal(STOPWATCH_SCENARIO) * 1000);
-		log.info("Action timings:\t total={}ms, \tmin={}ms, \tmean={}ms, \tmax={}ms",
+		printTimings("Action", STOPWATCH_ACTION);
+		printNetTimings("Action", STOPWATCH_ACTION, calibration);
+		printTimings("Writing", STOPWATCH_WRITE);
+		printNetTimings("Writing", STOPWATCH_WRITE, calibration);
+		printTimings("Reading", STOPWATCH_READ);
+		printNetTimings("Reading", STOPWATCH_READ, calibration);
+		if (getCount(STOPWATCH_BATCH_WRITE) > 0) {
+			printTimings("Batch writing", STOPWATCH_BATCH_WRITE);
+			printTimings("Batch writing per key", STOPWATCH_BATCH_WRITE_KEY);
+		}
+		if (getCount(STOPWATCH_BATCH_READ) > 0) {
+			printTimings("Batch reading", STOPWATCH_BATCH_READ);
+			printTimings("Batch reading per key", STOPWATCH_BATCH_READ_KEY);
+		}
+		if (getCount(STOPWATCH_ALLOCATION) > 0) {
+			LatencyHistogram allocation = getHistogram(STOPWATCH_ALLOCATION);
+			log.info("Allocation per action:\t mean={} bytes, \tp50={} bytes, \tp99={} bytes, \tmax={} bytes",
+					new Object[]{
+							String.format("%.1f", allocation.getMean()),
+							allocation.getValueAtPercentile(50),
+							allocation.getValueAtPercentile(99),
+							allocation.getMax()
+					}
+			);
+		}
+		if (getCount(STOPWATCH_POOL_WAIT) > 0) {
+			printTimings("Connection wait", STOPWATCH_POOL_WAIT);
+		}
+		if (getCount(STOPWATCH_SCHEDULE_LAG) > 0) {
+			printTimings("Schedule lag", STOPWATCH_SCHEDULE_LAG);
+		}
+		if (getCount(STOPWATCH_HANDOFF) > 0) {
+			printTimings("Group handoff", STOPWATCH_HANDOFF);
+		}
+		if (getCount(STOPWATCH_STALENESS) > 0) {
+			printTimings("Staleness", STOPWATCH_STALENESS);
+		}
+		if (ValueCodec.getCorrupted() > 0) {
+			log.warn("Corrupted values: {}", ValueCodec.getCorrupted());
+		}
+		if (getHistogram(PHASE_MEASURE, STOPWATCH_PRELOAD).getCount() > 0) {
+			printPreload();
+		}
+		KeyRankReporter.print();
+		VisibilityReporter.print();
+	}
+
+	private static void printWarmup() {
+		LatencyHistogram scenario = getHistogram(PHASE_WARMUP, STOPWATCH_SCENARIO);
+		LatencyHistogram action = getHistogram(PHASE_WARMUP, STOPWATCH_ACTION);
+		log.info("--- Warm-up phase ---");
+		log.info("Warm-up time: {}ms, actions: {}, throughput: {} req/sec, failures: {}", new Object[]{
+				toMillis(scenario.getTotal()),
+				action.getCount(),
+				scenario.getTotal() == 0 ? 0 : action.getCount() * 1e9 / scenario.getTotal(),
+				getHistogram(PHASE_WARMUP, STOPWATCH_FAILURE).getCount()
+		});
+		log.info("Warm-up action timings:\t mean={}ms, \tp50={}ms, \tp99={}ms, \tmax={}ms", new Object[]{
+				toMillis(action.getMean()),
+				toMillis(action.getValueAtPercentile(50)),
+				toMillis(action.getValueAtPercentile(99)),
+				toMillis(action.getMax())
+		});
+	}
+
+	private static void printPreload() {
+		LatencyHistogram batch = getHistogram(PHASE_MEASURE, STOPWATCH_PRELOAD);
+		log.info("Preload batch timings:\t count={}, \tmean={}ms, \tp50={}ms, \tp99={}ms, \tmax={}ms", new Object[]{
+				batch.getCount(),
+				toMillis(batch.getMean()),
+				toMillis(batch.getValueAtPercentile(50)),
+				toMillis(batch.getValueAtPercentile(99)),
+				toMillis(batch.getMax())
+		});
+	}
+
+	private static double toMillis(double nanos) {
+		return nanos / 1000000;
+	}
+
+	/**
+	 * Print latencies net of harness overhead measured by calibration run
+	 */
+	private static void printNetTimings(String title, int stopwatch, Calibration calibration) {
+		if (calibration == null || getCount(stopwatch) == 0) {
+			return;
+		}
+		double overhead = calibration.getOverhead(stopwatch);
+		double typicalOverhead = calibration.getTypicalOverhead(stopwatch);
+		log.info(title + " net of overhead:\t mean={}ms, \tp50={}ms, \tp99={}ms (overhead mean={}ms, p50={}ms)",
 				new Object[]{
-						getTotal(STOPWATCH_ACTION),
-						getMin(STOPWATCH_ACTION),
-						getMean(STOPWATCH_ACTION),
-						getMax(STOPWATCH_ACTION)
+						Math.max(0, getMean(stopwatch) - overhead),
+						Math.max(0, getPercentile(stopwatch, 50) - typicalOverhead),
+						Math.max(0, getPercentile(stopwatch, 99) - typicalOverhead),
+						overhead,
+						typicalOverhead
 				}
 		);
-		log.info("Writing timings:\t total={}ms, \tmin={}ms, \tmean={}ms, \tmax={}ms",
+		if (calibration.isSignificant(stopwatch)) {
+			log.warn("{} harness overhead is {}% of measured latency", title,
+					String.format("%.1f", overhead / getMean(stopwatch) * 100));
+		}
+	}
+
+	private static void printTimings(String title, int stopwatch) {
+		log.info(title + " timings:\t total={}ms, \tmin={}ms, \tmean={}ms, \tmax={}ms",
 				new Object[]{
-						getTotal(STOPWATCH_WRITE),
-						getMin(STOPWATCH_WRITE),
-						getMean(STOPWATCH_WRITE),
-						getMax(STOPWATCH_WRITE)
+						getTotal(stopwatch),
+						getMin(stopwatch),
+						getMean(stopwatch),
+						getMax(stopwatch)
 				}
 		);
-		log.info("Reading timings:\t total={}ms, \tmin={}ms, \tmean={}ms, \tmax={}ms",
+		log.info(title + " percentiles:\t p50={}ms, \tp90={}ms, \tp99={}ms, \tp99.9={}ms, \tp99.99={}ms",
 				new Object[]{
-						getTotal(STOPWATCH_READ),
-						getMin(STOPWATCH_READ),
-						getMean(STOPWATCH_READ),
-						getMax(STOPWATCH_READ)
+						getPercentile(stopwatch, 50),
+						getPercentile(stopwatch, 90),
+						getPercentile(stopwatch, 99),
+						getPercentile(stopwatch, 99.9),
+						getPercentile(stopwatch, 99.99)
 				}
 		);
 	}
@@ -0,0 +1,241 @@
+package net.thumbtack.research.nosql;
+
+import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.report.NamedThreadFactory;
+import net.thumbtack.research.nosql.report.Warmup;
+import net.thumbtack.research.nosql.scenarios.Scenario;
+import net.thumbtack.research.nosql.utils.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.thumbtack.research.nosql.report.Reporter.*;
+
+/**
+ * Lifecycle of the run: prepare, preload, warm-up, measure and drain phases.
+ * <p/>
+ * Measure phase lasts until all scenarios finish their sc.writes actions or sc.duration ms pass
+ * (counted from the end of warm-up). Then scenarios are asked to stop after their current action and
+ * are interrupted if they are still blocked after sc.drainTimeout ms. The report is printed once,
+ * either at the end of the run or by shutdown hook if the run is interrupted by Ctrl-C.
+ * <p/>
+ * Scenarios run on platform threads, one per scenario, or on virtual threads if sc.virtualThreads is set
+ * and the runtime supports them (Java 21+).
+ */
+public final class RunController {
+    private static final Logger log = LoggerFactory.getLogger(RunController.class);
+
+    private static final String PROGRESS_INTERVAL_PROPERTY = "report.progressInterval";
+    private static final int DEFAULT_PROGRESS_INTERVAL = 5000;
+    private static final String DRAIN_TIMEOUT_PROPERTY = "sc.drainTimeout";
+    private static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+
+    public enum Phase {
+        prepare, preload, warmup, measure, drain, done
+    }
+
+    private final Runnable report;
+    private final long duration;
+    private final long progressInterval;
+    private final long drainTimeout;
+    private final boolean virtualThreads;
+    private final Thread shutdownHook;
+    private volatile Phase phase = Phase.prepare;
+    private List<Scenario> scenarios;
+    private ExecutorService threadPool;
+    private CountDownLatch finished;
+    private long scenarioStart;
+    private long lastProgress;
+    private long lastActions;
+
+    /**
+     * @param report prints the report, it is called once when the run is finished or interrupted
+     */
+    public RunController(Configurator config, Runnable report) {
+        this.report = report;
+        this.duration = config.getScDuration();
+        this.progressInterval = Math.max(config.getInt(PROGRESS_INTERVAL_PROPERTY, DEFAULT_PROGRESS_INTERVAL), 1);
+        this.drainTimeout = config.getLong(DRAIN_TIMEOUT_PROPERTY, DEFAULT_DRAIN_TIMEOUT);
+        this.virtualThreads = isVirtualThreads(config);
+        if (config.isScVirtualThreads() && !virtualThreads) {
+            log.warn("Virtual threads are not supported by Java {}, platform threads are used",
+                    System.getProperty("java.version"));
+        }
+        this.shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (phase != Phase.done) {
+                    log.warn("Run is interrupted in {} phase", phase);
+                    finish();
+                }
+            }
+        }, "shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * @return true if scenarios of the config really run on virtual threads: sc.virtualThreads is set
+     * and the runtime supports them
+     */
+    public static boolean isVirtualThreads(Configurator config) {
+        return config.isScVirtualThreads() && VirtualThreads.isSupported();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Fill the database before scenarios are started, see {@link Preload}
+     * @param clients clients of the preload, they are closed at the end
+     */
+    public void preload(Preload preload, List<Client> clients) throws InterruptedException {
+        setPhase(Phase.preload);
+        preload.run(clients);
+    }
+
+    /**
+     * Start scenarios in their own threads
+     * @param start nanoTime of the scenarios start
+     */
+    public synchronized void start(List<Scenario> scenarios, long start) {
+        this.scenarios = new ArrayList<>(scenarios);
+        this.scenarioStart = start;
+        this.lastProgress = start;
+        finished = new CountDownLatch(scenarios.size());
+        threadPool = virtualThreads
+                ? VirtualThreads.newThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(Math.max(scenarios.size(), 1), new NamedThreadFactory("scenario"));
+        setPhase(Warmup.isEnabled() ? Phase.warmup : Phase.measure);
+        for (final Scenario scenario : scenarios) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scenario.run();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait for the end of measure phase printing progress, then drain and report
+     */
+    public void await() throws InterruptedException {
+        while (!finished.await(getWaitTime(), TimeUnit.MILLISECONDS)) {
+            if (phase == Phase.warmup && Warmup.isFinished()) {
+                setPhase(Phase.measure);
+            }
+            if (isDurationElapsed()) {
+                log.info("Run duration {}ms elapsed", duration);
+                break;
+            }
+            printProgress();
+        }
+        finish();
+    }
+
+    /**
+     * Drain scenarios and print the report, does nothing if it is already done
+     */
+    public synchronized void finish() {
+        if (phase == Phase.done) {
+            return;
+        }
+        Warmup.stop();
+        if (scenarioStart != 0) {
+            // scenarios are started, the hook may finish the run during prepare or preload too
+            addEvent(STOPWATCH_SCENARIO, getMeasureStart());
+        }
+        drain();
+        report.run();
+        phase = Phase.done;
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM is shutting down already
+            }
+        }
+    }
+
+    private void drain() {
+        setPhase(Phase.drain);
+        if (threadPool == null) {
+            return;
+        }
+        for (Scenario scenario : scenarios) {
+            scenario.stop();
+        }
+        threadPool.shutdown();
+        try {
+            if (!threadPool.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("{} scenarios are still running after {}ms, interrupting them",
+                        finished.getCount(), drainTimeout);
+                threadPool.shutdownNow();
+                threadPool.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long getWaitTime() {
+        if (duration > 0 && phase == Phase.measure) {
+            long left = TimeUnit.NANOSECONDS.toMillis(getMeasureStart() + TimeUnit.MILLISECONDS.toNanos(duration)
+                    - System.nanoTime());
+            return Math.max(Math.min(progressInterval, left), 1);
+        }
+        return progressInterval;
+    }
+
+    private boolean isDurationElapsed() {
+        return duration > 0
+                && phase == Phase.measure
+                && System.nanoTime() - getMeasureStart() >= TimeUnit.MILLISECONDS.toNanos(duration);
+    }
+
+    private long getMeasureStart() {
+        return Warmup.isFinished() ? Warmup.getMeasureStart() : scenarioStart;
+    }
+
+    private void printProgress() {
+        long now = System.nanoTime();
+        if (now - lastProgress < TimeUnit.MILLISECONDS.toNanos(progressInterval)) {
+            return;
+        }
+        long actions = getCount(STOPWATCH_ACTION);
+        if (actions < lastActions) {
+            // phase is switched, counters start from zero
+            lastActions = 0;
+        }
+        log.info("[{}] {}s: {} actions, {} req/sec, {} failures, {} scenarios running", new Object[]{
+                phase,
+                TimeUnit.NANOSECONDS.toSeconds(now - scenarioStart),
+                actions,
+                String.format("%.1f", (actions - lastActions) * 1e9 / (now - lastProgress)),
+                getCount(STOPWATCH_FAILURE),
+                finished.getCount()
+        });
+        lastProgress = now;
+        lastActions = actions;
+    }
+
+    private void setPhase(Phase phase) {
+        log.info("Phase: {}", phase);
+        this.phase = phase;
+    }
+}
@@ -2,14 +2,25 @@ package net.thumbtack.research.nosql.clients;
 
 
 import com.aerospike.client.*;
+import com.aerospike.client.Record;
+import com.aerospike.client.async.AsyncClient;
+import com.aerospike.client.async.AsyncClientPolicy;
+import com.aerospike.client.async.MaxCommandAction;
+import com.aerospike.client.listener.RecordListener;
+import com.aerospike.client.listener.WriteListener;
 import com.aerospike.client.policy.ClientPolicy;
+import com.aerospike.client.policy.ScanPolicy;
 import com.aerospike.client.policy.WritePolicy;
 import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.RunController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,31 +31,103 @@ public class AerospikeClientDB implements Client {
     private static final int DEFAULT_TIMEOUT = 3000;
     private static final int DEFAULT_RETRIES = 3;
     private static final int DEFAULT_SLEEP_BETWEEN_RETRIES = 10;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 200;
+    /** Limit of connections per node of the shared client when scenarios run on virtual threads */
+    private static final int VIRTUAL_THREADS_CONNECTIONS = 64;
 
     private static final String NAMESPACE_PROPERTY = "aerospike.nameSpace";
     private static final String DEFAULT_NAMESPACE = "test";
     private static final String SET_NAME_PROPERTY = "aerospike.setName";
     private static final String DEFAULT_SET_NAME = "test";
+    private static final String TRUNCATE_PROPERTY = "aerospike.truncate";
+    private static final String SHARED_CLIENT_PROPERTY = "aerospike.sharedClient";
 
     private static final Logger log = LoggerFactory.getLogger(AerospikeClientDB.class);
 
+    /**
+     * Cluster-aware client shared by all instances in aerospike.sharedClient mode
+     */
+    private static AerospikeClient sharedClient;
+    private static int sharedClientReferences;
+
     private AerospikeClient client;
+    private AsyncClient asyncClient;
     private String nameSpace;
     private String setName;
     private WritePolicy writePolicy;
 
     private boolean slow;
+    private boolean shared;
+
+    // reusable request templates of blocking calls, used by the owner thread only
+    private String host;
+    private Bin[] bins = new Bin[0];
+    private final Map<String, byte[]> binValues = new HashMap<>();
+    private final Map<String, ByteBuffer> readResult = new HashMap<>();
 
+    /**
+     * Namespaces and sets are configured on server side, so only records left by previous runs are deleted
+     * here if aerospike.truncate is set. Aerospike has no truncate, the set is scanned and cleaned record by record.
+     */
     @Override
-    public void init(Configurator configurator) throws ClientException {
+    public void prepare(Configurator configurator) throws ClientException {
+        if (!Boolean.parseBoolean(configurator.getString(TRUNCATE_PROPERTY, "false"))) {
+            return;
+        }
+        String host = configurator.getDbHosts().length > 0 ? configurator.getDbHosts()[0] : DEFAULT_HOST;
+        final String nameSpace = configurator.getString(NAMESPACE_PROPERTY, DEFAULT_NAMESPACE);
+        final String setName = configurator.getString(SET_NAME_PROPERTY, DEFAULT_SET_NAME);
+        final AerospikeClient client;
         try {
-            String host = configurator.getNextDbHost(DEFAULT_HOST);
+            client = new AerospikeClient(new ClientPolicy(), host, configurator.getDbPort(DEFAULT_PORT));
+        } catch (AerospikeException e) {
+            log.error(e.getMessage());
+            throw new ClientException(e);
+        }
+        try {
+            final WritePolicy deletePolicy = new WritePolicy();
+            ScanPolicy scanPolicy = new ScanPolicy();
+            scanPolicy.includeBinData = false;
+            scanPolicy.concurrentNodes = true;
+            client.scanAll(scanPolicy, nameSpace, setName, new ScanCallback() {
+                @Override
+                public void scanCallback(Key key, Record record) throws AerospikeException {
+                    client.delete(deletePolicy, key);
+                }
+            });
+        } catch (AerospikeException e) {
+            log.error(e.getMessage());
+            throw new ClientException(e);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Override
+    public void init(Configurator configurator, String host) throws ClientException {
+        try {
+            if (host == null) {
+                host = DEFAULT_HOST;
+            }
+            this.host = host;
             slow = configurator.isSlow(host);
-            client = new AerospikeClient(
-                    new ClientPolicy(),
-                    host,
-                    configurator.getDbPort(DEFAULT_PORT)
-            );
+            // thousands of virtual threads must share bounded connections of one client
+            shared = RunController.isVirtualThreads(configurator)
+                    || Boolean.parseBoolean(configurator.getString(SHARED_CLIENT_PROPERTY, "false"));
+            if (shared) {
+                client = getSharedClient(configurator);
+            } else if (configurator.getScOutstanding() > 1) {
+                client = new AsyncClient(createAsyncPolicy(configurator), host, configurator.getDbPort(DEFAULT_PORT));
+            } else {
+                client = new AerospikeClient(
+                        new ClientPolicy(),
+                        host,
+                        configurator.getDbPort(DEFAULT_PORT)
+                );
+            }
+            if (client instanceof AsyncClient) {
+                asyncClient = (AsyncClient) client;
+            }
             nameSpace = configurator.getString(NAMESPACE_PROPERTY, DEFAULT_NAMESPACE);
             setName = configurator.getString(SET_NAME_PROPERTY, DEFAULT_SET_NAME);
 
@@ -60,24 +143,69 @@ public class AerospikeClientDB implements Client {
     }
 
     @Override
-    public void write(String key, Map<String, ByteBuffer> data) throws ClientException {
+    public void write(CharSequence key, Map<String, ByteBuffer> data) throws ClientException {
+        try {
+            client.put(writePolicy, createKey(key), createBins(data, true));
+        } catch (AerospikeException e) {
+            log.error(e.toString());
+            throw new ClientException(e);
+        }
+    }
+
+    /**
+     * Aerospike has no multi-record write, so records are written with asynchronous puts
+     * when async client is enabled and one by one otherwise
+     */
+    @Override
+    public void writeBatch(Map<String, Map<String, ByteBuffer>> values) throws ClientException {
+        if (asyncClient == null) {
+            for (Map.Entry<String, Map<String, ByteBuffer>> entry : values.entrySet()) {
+                write(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        List<ClientFuture<Void>> futures = new ArrayList<>(values.size());
+        for (Map.Entry<String, Map<String, ByteBuffer>> entry : values.entrySet()) {
+            futures.add(writeAsync(entry.getKey(), entry.getValue()));
+        }
         try {
-            Bin[] bins = new Bin[data.size()];
-            int i = 0;
-            for (String name : data.keySet()) {
-                bins[i] =  new Bin(name, data.get(name).array());
-                i++;
+            for (ClientFuture<Void> future : futures) {
+                future.get();
             }
-            client.put(writePolicy, createKey(key), bins);
+        } catch (Exception e) {
+            throw new ClientException(e);
+        }
+    }
+
+    @Override
+    public ClientFuture<Void> writeAsync(CharSequence key, Map<String, ByteBuffer> data) throws ClientException {
+        if (asyncClient == null) {
+            write(key, data);
+            return ClientFuture.completed(null);
+        }
+        final ClientFuture<Void> future = new ClientFuture<>();
+        try {
+            asyncClient.put(writePolicy, new WriteListener() {
+                @Override
+                public void onSuccess(Key key) {
+                    future.set(null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    log.error(e.toString());
+                    future.fail(new ClientException(e));
+                }
+            }, createKey(key), createBins(data, false));
         } catch (AerospikeException e) {
             log.error(e.toString());
             throw new ClientException(e);
         }
+        return future;
     }
 
     @Override
-    public Map<String, ByteBuffer> read(String key, Set<String> columnNames) throws ClientException {
-        Map<String, ByteBuffer> result = new HashMap<>();
+    public Map<String, ByteBuffer> read(CharSequence key, Set<String> columnNames) throws ClientException {
         try {
             Record record;
             if(columnNames == null || columnNames.isEmpty()) {
@@ -85,30 +213,190 @@ public class AerospikeClientDB implements Client {
             } else {
                 record = client.get(writePolicy, createKey(key), columnNames.toArray(new String[columnNames.size()]));
             }
-            for(String name : record.bins.keySet()) {
-                result.put(name, ByteBuffer.wrap((byte[])record.bins.get(name)));
+            readResult.clear();
+            return toMap(record, readResult);
+        } catch (AerospikeException e) {
+            log.error(e.toString());
+            throw new ClientException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, ByteBuffer>> readBatch(Collection<String> keys, Set<String> columnNames)
+            throws ClientException {
+        Map<String, Map<String, ByteBuffer>> result = new HashMap<>();
+        try {
+            String[] keyNames = keys.toArray(new String[keys.size()]);
+            Key[] batchKeys = new Key[keyNames.length];
+            for (int i = 0; i < keyNames.length; i++) {
+                batchKeys[i] = createKey(keyNames[i]);
+            }
+            Record[] records;
+            if (columnNames == null || columnNames.isEmpty()) {
+                records = client.get(writePolicy, batchKeys);
+            } else {
+                records = client.get(writePolicy, batchKeys, columnNames.toArray(new String[columnNames.size()]));
+            }
+            for (int i = 0; i < keyNames.length; i++) {
+                if (records[i] != null) {
+                    result.put(keyNames[i], toMap(records[i], new HashMap<String, ByteBuffer>()));
+                }
             }
-            return result;
         } catch (AerospikeException e) {
             log.error(e.toString());
             throw new ClientException(e);
-        } catch (NullPointerException e) {
-            log.debug(e.getMessage());
         }
         return result;
     }
 
+    @Override
+    public ClientFuture<Map<String, ByteBuffer>> readAsync(CharSequence key, Set<String> columnNames) throws ClientException {
+        if (asyncClient == null) {
+            return ClientFuture.completed(read(key, columnNames));
+        }
+        final ClientFuture<Map<String, ByteBuffer>> future = new ClientFuture<>();
+        RecordListener listener = new RecordListener() {
+            @Override
+            public void onSuccess(Key key, Record record) {
+                future.set(toMap(record, new HashMap<String, ByteBuffer>()));
+            }
+
+            @Override
+            public void onFailure(AerospikeException e) {
+                log.error(e.toString());
+                future.fail(new ClientException(e));
+            }
+        };
+        try {
+            if (columnNames == null || columnNames.isEmpty()) {
+                asyncClient.get(writePolicy, listener, createKey(key));
+            } else {
+                asyncClient.get(writePolicy, listener, createKey(key), columnNames.toArray(new String[columnNames.size()]));
+            }
+        } catch (AerospikeException e) {
+            log.error(e.toString());
+            throw new ClientException(e);
+        }
+        return future;
+    }
+
     @Override
     public void close() throws Exception {
-        client.close();
+        if (shared) {
+            releaseSharedClient();
+        } else {
+            client.close();
+        }
+    }
+
+    /**
+     * Get client shared by all instances, it is created by the first call and seeded with all db.hosts.
+     * The client routes every request to the node owning the record, so a host given to an instance
+     * is used for slow node attribution only, as it was with per-instance clients.
+     */
+    private static synchronized AerospikeClient getSharedClient(Configurator configurator) throws AerospikeException {
+        if (sharedClient == null) {
+            String[] hostNames = configurator.getDbHosts();
+            if (hostNames.length == 0) {
+                hostNames = new String[]{DEFAULT_HOST};
+            }
+            Host[] hosts = new Host[hostNames.length];
+            for (int i = 0; i < hostNames.length; i++) {
+                hosts[i] = new Host(hostNames[i], configurator.getDbPort(DEFAULT_PORT));
+            }
+            if (configurator.getScOutstanding() > 1) {
+                AsyncClientPolicy policy = createAsyncPolicy(configurator);
+                policy.maxThreads = getMaxConnections(configurator);
+                sharedClient = new AsyncClient(policy, hosts);
+            } else {
+                ClientPolicy policy = new ClientPolicy();
+                policy.maxThreads = getMaxConnections(configurator);
+                sharedClient = new AerospikeClient(policy, hosts);
+            }
+            log.info("Shared Aerospike client connected to nodes {}", sharedClient.getNodeNames());
+        }
+        sharedClientReferences++;
+        return sharedClient;
+    }
+
+    private static int getMaxConnections(Configurator configurator) {
+        int threads = configurator.getScThreads();
+        return RunController.isVirtualThreads(configurator) ? Math.min(threads, VIRTUAL_THREADS_CONNECTIONS) : threads;
     }
 
-    private Key createKey(String key) throws AerospikeException {
-        return new Key(nameSpace, setName, key);
+    private static synchronized void releaseSharedClient() {
+        if (--sharedClientReferences == 0) {
+            sharedClient.close();
+            sharedClient = null;
+        }
+    }
+
+    private static AsyncClientPolicy createAsyncPolicy(Configurator configurator) {
+        AsyncClientPolicy policy = new AsyncClientPolicy();
+        policy.asyncMaxCommands = configurator.getDbMaxInFlight(DEFAULT_MAX_IN_FLIGHT);
+        policy.asyncMaxCommandAction = MaxCommandAction.BLOCK;
+        return policy;
+    }
+
+    private Key createKey(CharSequence key) throws AerospikeException {
+        return new Key(nameSpace, setName, key.toString());
+    }
+
+    /**
+     * Aerospike bins hold byte arrays only. Heap buffers wrapping a whole array are passed as is,
+     * other buffers (direct or slices) are copied into per-bin arrays which are reused by blocking calls.
+     * @param reuse true if bins are serialized before the call returns, so templates may be reused
+     */
+    private Bin[] createBins(Map<String, ByteBuffer> data, boolean reuse) {
+        Bin[] result = bins;
+        if (!reuse || result.length != data.size()) {
+            result = new Bin[data.size()];
+            if (reuse) {
+                bins = result;
+            }
+        }
+        int i = 0;
+        for (Map.Entry<String, ByteBuffer> entry : data.entrySet()) {
+            result[i++] = new Bin(entry.getKey(), toBytes(entry.getKey(), entry.getValue(), reuse));
+        }
+        return result;
+    }
+
+    private byte[] toBytes(String name, ByteBuffer buffer, boolean reuse) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = reuse ? binValues.get(name) : null;
+        if (bytes == null || bytes.length != buffer.remaining()) {
+            bytes = new byte[buffer.remaining()];
+            if (reuse) {
+                binValues.put(name, bytes);
+            }
+        }
+        int position = buffer.position();
+        buffer.get(bytes);
+        buffer.position(position);
+        return bytes;
+    }
+
+    private Map<String, ByteBuffer> toMap(Record record, Map<String, ByteBuffer> result) {
+        if (record == null || record.bins == null) {
+            return result;
+        }
+        for (Map.Entry<String, Object> bin : record.bins.entrySet()) {
+            result.put(bin.getKey(), ByteBuffer.wrap((byte[]) bin.getValue()));
+        }
+        return result;
     }
 
     @Override
     public boolean isSlow() {
         return slow;
     }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
 }
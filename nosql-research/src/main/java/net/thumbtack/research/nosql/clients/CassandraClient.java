@@ -1,30 +1,43 @@
 package net.thumbtack.research.nosql.clients;
 
 import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.RunController;
 import net.thumbtack.research.nosql.utils.StringSerializer;
 import org.apache.cassandra.locator.NetworkTopologyStrategy;
 import org.apache.cassandra.locator.SimpleStrategy;
 import org.apache.cassandra.thrift.*;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingSocket;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public final class CassandraClient implements Client {
     private static final String DEFAULT_HOST = "localhost";
     private static final int DEFAULT_PORT = 9160;
     private static final int DEFAULT_RETRIES = 1;
+    /** Default limit of connections per host when scenarios run on virtual threads */
+    private static final int VIRTUAL_THREADS_CONNECTIONS = 64;
     private static final String KEY_SPACE_PROPERTY = "cassandra.keySpace";
     private static final String DEFAULT_KEY_SPACE = "key_space";
     private static final String COLUMN_FAMILY_PROPERTY = "cassandra.columnFamily";
     private static final String DEFAULT_COLUMN_FAMILY = "column_family";
+    private static final String TRUNCATE_PROPERTY = "cassandra.truncate";
 
     private static final String READ_CONSISTENCY_LEVEL_PROPERTY = "cassandra.readConsistencyLevel";
     private static final String WRITE_CONSISTENCY_LEVEL_PROPERTY = "cassandra.writeConsistencyLevel";
@@ -38,10 +51,23 @@ public final class CassandraClient implements Client {
 
     private static final String STRATEGY_REPLICATION_FACTOR_PROPERTY = "replication_factor";
 
+    private static final String UNREACHABLE_SCHEMA_VERSION = "UNREACHABLE";
+    private static final long SCHEMA_AGREEMENT_TIMEOUT = 30000;
+    /** Time to wait for in-flight asynchronous requests on close, ms */
+    private static final long CLOSE_TIMEOUT = 10000;
+    private static final long SCHEMA_AGREEMENT_SLEEP = 200;
+
     private static final Logger log = LoggerFactory.getLogger(CassandraClient.class);
 
     private static final StringSerializer ss = StringSerializer.get();
 
+    private static TAsyncClientManager asyncClientManager;
+
+    /**
+     * Decoded column names, so reading does not decode the same names again and again
+     */
+    private static final ConcurrentMap<ByteBuffer, String> columnNames = new ConcurrentHashMap<>();
+
     private ConsistencyLevel readConsistencyLevel;
     private ConsistencyLevel writeConsistencyLevel;
 
@@ -53,10 +79,30 @@ public final class CassandraClient implements Client {
 
     private int retries;
 
-    private Cassandra.Client client;
-    private TTransport transport;
-
-    private Map<String, ColumnOrSuperColumn> superColumns;
+    private String host;
+    private int port;
+
+    private CassandraConnectionPool pool;
+
+    /**
+     * Idle non-blocking connections. Thrift async transport carries one call at a time,
+     * so the count of connections is the limit of in-flight requests of this client.
+     */
+    private BlockingQueue<Cassandra.AsyncClient> asyncClients;
+    /** Transports of async clients, so a broken client is closed when it is replaced */
+    private Map<Cassandra.AsyncClient, TNonblockingSocket> asyncTransports;
+
+    // Reusable request templates. They are used by the owner thread only: Thrift serializes
+    // arguments of both blocking and asynchronous calls before the call method returns.
+    private final Map<ByteBuffer, Map<String, List<Mutation>>> writeRecord = new HashMap<>(2);
+    private final Map<String, List<Mutation>> writeMutationMap = new HashMap<>(2);
+    private final List<Mutation> writeMutations = new ArrayList<>();
+    private final Map<String, Mutation> mutations = new HashMap<>();
+    private final Map<String, ByteBuffer> readResult = new HashMap<>();
+    private ByteBuffer keyBuffer = ByteBuffer.allocate(64);
+    private ColumnParent columnParent;
+    private Set<String> predicateColumns;
+    private SlicePredicate slicePredicate;
 
     private boolean slow;
 
@@ -65,33 +111,73 @@ public final class CassandraClient implements Client {
 
     @Override
     public void close() throws Exception {
-        transport.close();
+        if (pool != null) {
+            pool.release();
+        }
+        if (asyncClients != null) {
+            // wait for in-flight requests, a client lost by a failed callback is never returned
+            int count = asyncClients.remainingCapacity() + asyncClients.size();
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+            for (int i = 0; i < count; i++) {
+                long timeout = deadline - System.currentTimeMillis();
+                if (timeout <= 0 || asyncClients.poll(timeout, TimeUnit.MILLISECONDS) == null) {
+                    log.warn("{} asynchronous requests to {} are not finished in {}ms", new Object[]{
+                            count - i, host, CLOSE_TIMEOUT
+                    });
+                    break;
+                }
+            }
+            synchronized (asyncTransports) {
+                for (TNonblockingSocket asyncTransport : asyncTransports.values()) {
+                    asyncTransport.close();
+                }
+            }
+        }
     }
 
+    /**
+     * Create or update key space and column family, wait for schema agreement and truncate column family
+     * unless cassandra.truncate is false. It is done once per run by a separate connection.
+     */
     @Override
-    public void init(Configurator configurator) throws ClientException {
+    public void prepare(Configurator configurator) throws ClientException {
+        configure(configurator);
+        host = configurator.getDbHosts().length > 0 ? configurator.getDbHosts()[0] : DEFAULT_HOST;
+        log.debug("Prepare key space {} on {}:{}", new Object[]{keySpace, host, port});
+        try {
+            TTransport transport = new TFramedTransport(new TSocket(host, port));
+            Cassandra.Client client = new Cassandra.Client(new TBinaryProtocol(transport));
+            transport.open();
+            try {
+                setReplicationFactor(client);
+                waitForSchemaAgreement(client);
+                client.set_keyspace(keySpace);
+                if (Boolean.parseBoolean(configurator.getString(TRUNCATE_PROPERTY, "true"))) {
+                    client.truncate(columnFamily);
+                }
+            } finally {
+                transport.close();
+            }
+        } catch (TException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new ClientException(e);
+        }
+    }
+
+    @Override
+    public void init(Configurator configurator, String host) throws ClientException {
         if(log.isDebugEnabled()) {
             log.debug("Configurator: " + configurator);
         }
         try {
-            String host = configurator.getNextDbHost(DEFAULT_HOST);
+            configure(configurator);
+            if (host == null) {
+                host = DEFAULT_HOST;
+            }
+            this.host = host;
             slow = configurator.isSlow(host);
-            int port = configurator.getDbPort(DEFAULT_PORT);
-            retries = configurator.getDbRetries(DEFAULT_RETRIES);
             log.debug("Client initialization: " + host + ":" + port);
-            transport = new TFramedTransport(new TSocket(host, port));
-            client = new Cassandra.Client(new TBinaryProtocol(transport));
-            transport.open();
-
-            keySpace = configurator.getString(KEY_SPACE_PROPERTY, DEFAULT_KEY_SPACE);
-            replicationFactor = configurator.getString(REPLICATION_FACTOR_PROPERTY, DEFAULT_REPLICATION_FACTOR);
-            replicationStrategy = configurator.getString(REPLICATION_STRATEGY_PROPERTY, DEFAULT_REPLICATION_STRATEGY);
-            replicationOptions = configurator.getString(STRATEGY_OPTIONS_PROPERTY, DEFAULT_STRATEGY_OPTIONS);
-            columnFamily = configurator.getString(COLUMN_FAMILY_PROPERTY, DEFAULT_COLUMN_FAMILY);
-
-            setReplicationFactor();
-
-            client.set_keyspace(keySpace);
 
             readConsistencyLevel = getConsistencyLevel(
                     configurator,
@@ -103,46 +189,80 @@ public final class CassandraClient implements Client {
                     WRITE_CONSISTENCY_LEVEL_PROPERTY,
                     ConsistencyLevel.ONE
             );
-            columnFamily = configurator.getString(COLUMN_FAMILY_PROPERTY, DEFAULT_COLUMN_FAMILY);
 
-            client.truncate(columnFamily);
-
-            superColumns = new HashMap<>();
-        } catch (TException e) {
+            int hostsCount = Math.max(configurator.getDbHosts().length, 1);
+            int connectionsPerHost = (configurator.getScThreads() + hostsCount - 1) / hostsCount;
+            if (RunController.isVirtualThreads(configurator)) {
+                connectionsPerHost = Math.min(connectionsPerHost, VIRTUAL_THREADS_CONNECTIONS);
+            }
+            int connections = configurator.getDbConnectionsPerHost(connectionsPerHost);
+            pool = CassandraConnectionPool.get(host, port, keySpace, connections);
+
+            columnParent = new ColumnParent(columnFamily);
+            writeMutationMap.put(columnFamily, writeMutations);
+
+            int outstanding = configurator.getScOutstanding();
+            if (outstanding > 1) {
+                asyncClients = new ArrayBlockingQueue<>(outstanding);
+                asyncTransports = new HashMap<>();
+                for (int i = 0; i < outstanding; i++) {
+                    asyncClients.add(openAsyncClient());
+                }
+            }
+        } catch (ClientException e) {
             e.printStackTrace();
             log.error(e.getMessage());
-            throw new ClientException(e);
+            throw e;
         }
     }
 
+    private void configure(Configurator configurator) {
+        port = configurator.getDbPort(DEFAULT_PORT);
+        retries = configurator.getDbRetries(DEFAULT_RETRIES);
+        keySpace = configurator.getString(KEY_SPACE_PROPERTY, DEFAULT_KEY_SPACE);
+        replicationFactor = configurator.getString(REPLICATION_FACTOR_PROPERTY, DEFAULT_REPLICATION_FACTOR);
+        replicationStrategy = configurator.getString(REPLICATION_STRATEGY_PROPERTY, DEFAULT_REPLICATION_STRATEGY);
+        replicationOptions = configurator.getString(STRATEGY_OPTIONS_PROPERTY, DEFAULT_STRATEGY_OPTIONS);
+        columnFamily = configurator.getString(COLUMN_FAMILY_PROPERTY, DEFAULT_COLUMN_FAMILY);
+    }
+
     @Override
-    public void write(String key, Map<String, ByteBuffer> data) throws ClientException {
+    public void write(CharSequence key, Map<String, ByteBuffer> data) throws ClientException {
+        batchMutate(createRecord(key, data));
+        if(log.isDebugEnabled()) {
+            log.debug("Written key:" + key + " data: " + data);
+        }
+    }
 
+    @Override
+    public void writeBatch(Map<String, Map<String, ByteBuffer>> values) throws ClientException {
         Map<ByteBuffer, Map<String, List<Mutation>>> record = new HashMap<>();
-        Map<String, List<Mutation>> mutationMap = new HashMap<>();
-        List<Mutation> mutations = new ArrayList<>();
-
-        ByteBuffer wrappedKey = ss.toByteBuffer(key);
-
-        for (String columnName: data.keySet()) {
-            ColumnOrSuperColumn superColumn = getSuperColumn(columnName);
-            superColumn.column.setValue(data.get(columnName));
-            superColumn.column.setTimestamp(System.currentTimeMillis());
-
-            mutations.add(new Mutation().setColumn_or_supercolumn(superColumn));
+        long timestamp = System.currentTimeMillis();
+        for (Map.Entry<String, Map<String, ByteBuffer>> entry : values.entrySet()) {
+            List<Mutation> mutations = new ArrayList<>(entry.getValue().size());
+            for (Map.Entry<String, ByteBuffer> column : entry.getValue().entrySet()) {
+                Column col = new Column(ss.toByteBuffer(column.getKey()))
+                        .setValue(column.getValue())
+                        .setTimestamp(timestamp);
+                mutations.add(new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(col)));
+            }
+            Map<String, List<Mutation>> mutationMap = new HashMap<>();
             mutationMap.put(columnFamily, mutations);
-
-            record.put(wrappedKey, mutationMap);
+            record.put(ss.toByteBuffer(entry.getKey()), mutationMap);
         }
+        batchMutate(record);
+    }
 
-
+    private void batchMutate(Map<ByteBuffer, Map<String, List<Mutation>>> record) throws ClientException {
         Exception exception = null;
         for (int i=0; i<retries; i++) {
+            CassandraConnectionPool.Connection connection = pool.borrow();
             try {
-                client.batch_mutate(record, writeConsistencyLevel);
+                connection.client.batch_mutate(record, writeConsistencyLevel);
             } catch (TTransportException e) {
                 e.printStackTrace();
                 log.error(e.getMessage() + " TTransportException.Type: " + e.getType());
+                connection.invalidate();
                 exception = e;
                 continue;
             } catch (TException e) {
@@ -150,9 +270,8 @@ public final class CassandraClient implements Client {
                 log.error(e.getMessage());
                 exception = e;
                 continue;
-            }
-            if(log.isDebugEnabled()) {
-                log.debug("Written key:" + ss.fromByteBuffer(wrappedKey) + " data: " + data);
+            } finally {
+                pool.giveBack(connection);
             }
             return;
         }
@@ -160,35 +279,293 @@ public final class CassandraClient implements Client {
     }
 
     @Override
-    public Map<String, ByteBuffer> read(String key, Set<String> columnNames) throws ClientException {
-        Map<String, ByteBuffer> result = new HashMap<>();
-        ColumnParent parent = new ColumnParent(columnFamily);
-        List<ByteBuffer> wrapperColumnNames = new ArrayList<>();
-        for (String cn: columnNames) {
-            wrapperColumnNames.add(ss.toByteBuffer(cn));
-        }
-        SlicePredicate slicePredicate = new SlicePredicate()
-                .setColumn_names(wrapperColumnNames);
+    public ClientFuture<Void> writeAsync(CharSequence key, Map<String, ByteBuffer> data) throws ClientException {
+        if (asyncClients == null) {
+            write(key, data);
+            return ClientFuture.completed(null);
+        }
+        final ClientFuture<Void> future = new ClientFuture<>();
+        final Cassandra.AsyncClient asyncClient = takeAsyncClient();
+        try {
+            asyncClient.batch_mutate(createRecord(key, data), writeConsistencyLevel,
+                    new AsyncMethodCallback<Cassandra.AsyncClient.batch_mutate_call>() {
+                        @Override
+                        public void onComplete(Cassandra.AsyncClient.batch_mutate_call call) {
+                            try {
+                                call.getResult();
+                                future.set(null);
+                            } catch (TException e) {
+                                log.error(e.toString());
+                                future.fail(new ClientException(e));
+                            }
+                            releaseAsyncClient(asyncClient);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            log.error(e.toString());
+                            future.fail(new ClientException(e));
+                            releaseAsyncClient(asyncClient);
+                        }
+                    });
+        } catch (TException e) {
+            log.error(e.toString());
+            releaseAsyncClient(asyncClient);
+            throw new ClientException(e);
+        }
+        return future;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> read(CharSequence key, Set<String> columnNames) throws ClientException {
+        CassandraConnectionPool.Connection connection = pool.borrow();
         try {
-            List<ColumnOrSuperColumn> readResult = client.get_slice(
-                    ss.toByteBuffer(key),
-                    parent,
-                    slicePredicate,
+            List<ColumnOrSuperColumn> columns = connection.client.get_slice(
+                    encodeKey(key),
+                    columnParent,
+                    getSlicePredicate(columnNames),
                     readConsistencyLevel
             );
-            for (ColumnOrSuperColumn column: readResult) {
-                result.put(ss.fromByteBuffer(column.column.name), column.column.value);
-            }
-            return result;
+            readResult.clear();
+            return toMap(columns, readResult);
         }catch (NotFoundException e) {
             log.debug(e.getMessage());
+        } catch (TTransportException e) {
+            log.error(e.toString());
+            connection.invalidate();
+            throw new ClientException(e);
         } catch (TException e) {
             log.error(e.toString());
             throw new ClientException(e);
+        } finally {
+            pool.giveBack(connection);
+        }
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<String, Map<String, ByteBuffer>> readBatch(Collection<String> keys, Set<String> columnNames)
+            throws ClientException {
+        List<ByteBuffer> wrappedKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            wrappedKeys.add(ss.toByteBuffer(key));
+        }
+        Map<String, Map<String, ByteBuffer>> result = new HashMap<>();
+        CassandraConnectionPool.Connection connection = pool.borrow();
+        try {
+            Map<ByteBuffer, List<ColumnOrSuperColumn>> readResult = connection.client.multiget_slice(
+                    wrappedKeys,
+                    columnParent,
+                    getSlicePredicate(columnNames),
+                    readConsistencyLevel
+            );
+            for (Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> entry : readResult.entrySet()) {
+                result.put(ss.fromByteBuffer(entry.getKey()), toMap(entry.getValue(), new HashMap<String, ByteBuffer>()));
+            }
+        } catch (TTransportException e) {
+            log.error(e.toString());
+            connection.invalidate();
+            throw new ClientException(e);
+        } catch (TException e) {
+            log.error(e.toString());
+            throw new ClientException(e);
+        } finally {
+            pool.giveBack(connection);
+        }
+        return result;
+    }
+
+    @Override
+    public ClientFuture<Map<String, ByteBuffer>> readAsync(CharSequence key, Set<String> columnNames) throws ClientException {
+        if (asyncClients == null) {
+            return ClientFuture.completed(read(key, columnNames));
+        }
+        final ClientFuture<Map<String, ByteBuffer>> future = new ClientFuture<>();
+        final Cassandra.AsyncClient asyncClient = takeAsyncClient();
+        try {
+            asyncClient.get_slice(
+                    encodeKey(key),
+                    columnParent,
+                    getSlicePredicate(columnNames),
+                    readConsistencyLevel,
+                    new AsyncMethodCallback<Cassandra.AsyncClient.get_slice_call>() {
+                        @Override
+                        public void onComplete(Cassandra.AsyncClient.get_slice_call call) {
+                            try {
+                                future.set(toMap(call.getResult(), new HashMap<String, ByteBuffer>()));
+                            } catch (TException e) {
+                                log.error(e.toString());
+                                future.fail(new ClientException(e));
+                            }
+                            releaseAsyncClient(asyncClient);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            log.error(e.toString());
+                            future.fail(new ClientException(e));
+                            releaseAsyncClient(asyncClient);
+                        }
+                    });
+        } catch (TException e) {
+            log.error(e.toString());
+            releaseAsyncClient(asyncClient);
+            throw new ClientException(e);
+        }
+        return future;
+    }
+
+    /**
+     * Fill write templates with new values. The result is valid until the next call.
+     */
+    private Map<ByteBuffer, Map<String, List<Mutation>>> createRecord(CharSequence key, Map<String, ByteBuffer> data) {
+        long timestamp = System.currentTimeMillis();
+        writeMutations.clear();
+        for (Map.Entry<String, ByteBuffer> entry : data.entrySet()) {
+            Mutation mutation = getMutation(entry.getKey());
+            Column column = mutation.column_or_supercolumn.column;
+            column.setValue(entry.getValue());
+            column.setTimestamp(timestamp);
+            writeMutations.add(mutation);
+        }
+        writeRecord.clear();
+        writeRecord.put(encodeKey(key), writeMutationMap);
+        return writeRecord;
+    }
+
+    /**
+     * Encode key into reusable buffer. Keys are ASCII in all scenarios, other ones are encoded as usual.
+     * The result is valid until the next call.
+     */
+    private ByteBuffer encodeKey(CharSequence key) {
+        int length = key.length();
+        if (keyBuffer.capacity() < length) {
+            keyBuffer = ByteBuffer.allocate(length * 2);
+        }
+        keyBuffer.clear();
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                return ss.toByteBuffer(key.toString());
+            }
+            keyBuffer.put((byte) c);
+        }
+        keyBuffer.flip();
+        return keyBuffer;
+    }
+
+    private SlicePredicate getSlicePredicate(Set<String> names) {
+        if (slicePredicate == null || !names.equals(predicateColumns)) {
+            List<ByteBuffer> wrapperColumnNames = new ArrayList<>();
+            for (String cn: names) {
+                wrapperColumnNames.add(ss.toByteBuffer(cn));
+            }
+            slicePredicate = new SlicePredicate().setColumn_names(wrapperColumnNames);
+            predicateColumns = new HashSet<>(names);
+        }
+        return slicePredicate;
+    }
+
+    private Map<String, ByteBuffer> toMap(List<ColumnOrSuperColumn> columns, Map<String, ByteBuffer> result) {
+        for (ColumnOrSuperColumn column: columns) {
+            result.put(getColumnName(column.column.name), column.column.value);
         }
         return result;
     }
 
+    private static String getColumnName(ByteBuffer name) {
+        String result = columnNames.get(name);
+        if (result == null) {
+            result = ss.fromByteBuffer(name.duplicate());
+            columnNames.putIfAbsent(ss.toByteBuffer(result), result);
+        }
+        return result;
+    }
+
+    private static synchronized TAsyncClientManager getAsyncClientManager() throws IOException {
+        if (asyncClientManager == null) {
+            asyncClientManager = new TAsyncClientManager();
+        }
+        return asyncClientManager;
+    }
+
+    private Cassandra.AsyncClient openAsyncClient() throws ClientException {
+        TNonblockingSocket asyncTransport = null;
+        try {
+            asyncTransport = new TNonblockingSocket(host, port);
+            Cassandra.AsyncClient asyncClient = new Cassandra.AsyncClient(
+                    new TBinaryProtocol.Factory(),
+                    getAsyncClientManager(),
+                    asyncTransport
+            );
+            final ClientFuture<Void> keySpaceSet = new ClientFuture<>();
+            asyncClient.set_keyspace(keySpace, new AsyncMethodCallback<Cassandra.AsyncClient.set_keyspace_call>() {
+                @Override
+                public void onComplete(Cassandra.AsyncClient.set_keyspace_call call) {
+                    keySpaceSet.set(null);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    keySpaceSet.fail(e);
+                }
+            });
+            keySpaceSet.get();
+            synchronized (asyncTransports) {
+                asyncTransports.put(asyncClient, asyncTransport);
+            }
+            return asyncClient;
+        } catch (Exception e) {
+            if (asyncTransport != null) {
+                asyncTransport.close();
+            }
+            log.error(e.toString());
+            throw new ClientException(e);
+        }
+    }
+
+    /**
+     * Close transport of the client and forget it
+     */
+    private void closeAsyncClient(Cassandra.AsyncClient asyncClient) {
+        TNonblockingSocket asyncTransport;
+        synchronized (asyncTransports) {
+            asyncTransport = asyncTransports.remove(asyncClient);
+        }
+        if (asyncTransport != null) {
+            asyncTransport.close();
+        }
+    }
+
+    /**
+     * Take idle connection, waiting while all of them are in flight. A connection failed by its
+     * last call can't be reused, it is replaced with a new one here rather than in the selector thread.
+     */
+    private Cassandra.AsyncClient takeAsyncClient() throws ClientException {
+        Cassandra.AsyncClient asyncClient;
+        try {
+            asyncClient = asyncClients.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        }
+        if (asyncClient.hasError()) {
+            Cassandra.AsyncClient broken = asyncClient;
+            try {
+                asyncClient = openAsyncClient();
+            } catch (ClientException e) {
+                asyncClients.add(broken);
+                throw e;
+            }
+            closeAsyncClient(broken);
+        }
+        return asyncClient;
+    }
+
+    private void releaseAsyncClient(Cassandra.AsyncClient asyncClient) {
+        asyncClients.add(asyncClient);
+    }
+
     private ConsistencyLevel getConsistencyLevel(Configurator configurator, String name, ConsistencyLevel def) {
         String levelName = configurator.getString(name, null);
         if (levelName != null && ConsistencyLevel.valueOf(levelName) != null) {
@@ -197,19 +574,18 @@ public final class CassandraClient implements Client {
         return def;
     }
 
-    private ColumnOrSuperColumn getSuperColumn(String name) {
-        if(!superColumns.containsKey(name)) {
-            ColumnOrSuperColumn superColumn = new ColumnOrSuperColumn();
-            superColumn.setColumn(new Column());
-            Column col = superColumn.column;
-            col.setName(ss.toByteBuffer(name));
-            superColumns.put(name, superColumn);
-            return superColumn;
+    private Mutation getMutation(String name) {
+        Mutation mutation = mutations.get(name);
+        if (mutation == null) {
+            mutation = new Mutation().setColumn_or_supercolumn(
+                    new ColumnOrSuperColumn().setColumn(new Column(ss.toByteBuffer(name)))
+            );
+            mutations.put(name, mutation);
         }
-        return superColumns.get(name);
+        return mutation;
     }
 
-    private void setReplicationFactor() throws TException {
+    private void setReplicationFactor(Cassandra.Client client) throws TException {
         KsDef ksDef;
         try {
             ksDef = client.describe_keyspace(keySpace);
@@ -222,8 +598,17 @@ public final class CassandraClient implements Client {
                 ksDef.setStrategy_class(NetworkTopologyStrategy.class.getName());
                 ksDef.strategy_options.putAll(stringToMap(replicationOptions));
             }
+            boolean hasColumnFamily = false;
+            for (CfDef cfDef : ksDef.cf_defs) {
+                hasColumnFamily |= columnFamily.equals(cfDef.name);
+            }
             ksDef.cf_defs.clear();
             client.system_update_keyspace(ksDef);
+            if (!hasColumnFamily) {
+                waitForSchemaAgreement(client);
+                client.set_keyspace(keySpace);
+                client.system_add_column_family(new CfDef(keySpace, columnFamily));
+            }
         }
         catch (NotFoundException e) {
             List<CfDef> cfDefList = new ArrayList<>();
@@ -243,11 +628,34 @@ public final class CassandraClient implements Client {
         }
     }
 
+    private void waitForSchemaAgreement(Cassandra.Client client) throws TException {
+        long deadline = System.currentTimeMillis() + SCHEMA_AGREEMENT_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, List<String>> versions = client.describe_schema_versions();
+            versions.remove(UNREACHABLE_SCHEMA_VERSION);
+            if (versions.size() <= 1) {
+                return;
+            }
+            try {
+                Thread.sleep(SCHEMA_AGREEMENT_SLEEP);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.warn("Schema agreement is not reached in {}ms", SCHEMA_AGREEMENT_TIMEOUT);
+    }
+
     @Override
     public boolean isSlow() {
         return slow;
     }
 
+    @Override
+    public String getHost() {
+        return host;
+    }
+
     protected Map<String, String> stringToMap(String str) {
         Map<String, String> result = new HashMap<>();
         str = str.replace("{", "").replace("}", "");
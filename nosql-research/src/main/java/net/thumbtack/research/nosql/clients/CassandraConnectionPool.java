@@ -0,0 +1,165 @@
+package net.thumbtack.research.nosql.clients;
+
+import net.thumbtack.research.nosql.report.Reporter;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of Thrift connections to one Cassandra host shared by all clients of the host.
+ * Connections are opened lazily up to the pool size, a client borrows one for each request and returns it back.
+ * Time spent waiting for a free connection is tracked by {@link Reporter#STOPWATCH_POOL_WAIT}, waits of connect
+ * and preload are dropped before scenarios start.
+ */
+final class CassandraConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(CassandraConnectionPool.class);
+
+    private static final Map<String, CassandraConnectionPool> pools = new HashMap<>();
+    /** Waiter for a connection checks this often if a broken one is closed and it may open a new one, ms */
+    private static final long WAIT_INTERVAL = 100;
+
+    private final String host;
+    private final int port;
+    private final String keySpace;
+    private final int size;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicLong busyTime = new AtomicLong();
+    private final long createTime;
+    private int references;
+
+    /**
+     * Connection borrowed from pool
+     */
+    static final class Connection {
+        final Cassandra.Client client;
+        private final TTransport transport;
+        private boolean broken;
+        private long borrowTime;
+
+        private Connection(TTransport transport) {
+            this.transport = transport;
+            this.client = new Cassandra.Client(new TBinaryProtocol(transport));
+        }
+
+        /**
+         * Mark connection as broken, so it will be closed instead of returning to pool
+         */
+        void invalidate() {
+            broken = true;
+        }
+    }
+
+    private CassandraConnectionPool(String host, int port, String keySpace, int size) {
+        this.host = host;
+        this.port = port;
+        this.keySpace = keySpace;
+        this.size = size;
+        this.idle = new LinkedBlockingQueue<>(size);
+        this.createTime = System.nanoTime();
+    }
+
+    /**
+     * Get pool of the host and register one more client of it
+     * @param size count of connections to the host, used when the pool is created only
+     */
+    static synchronized CassandraConnectionPool get(String host, int port, String keySpace, int size) {
+        String name = host + ":" + port;
+        CassandraConnectionPool pool = pools.get(name);
+        if (pool == null) {
+            pool = new CassandraConnectionPool(host, port, keySpace, size);
+            pools.put(name, pool);
+        }
+        pool.references++;
+        return pool;
+    }
+
+    /**
+     * Unregister client of the pool. Connections are closed when the last client is gone.
+     */
+    void release() {
+        synchronized (CassandraConnectionPool.class) {
+            if (--references > 0) {
+                return;
+            }
+            pools.remove(host + ":" + port);
+        }
+        long lifeTime = System.nanoTime() - createTime;
+        log.info("Connection pool {}:{}: {} connections opened of {}, utilization {}%", new Object[]{
+                host, port, opened.get(), size,
+                String.format("%.2f", (double) busyTime.get() / lifeTime / size * 100)
+        });
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.transport.close();
+        }
+    }
+
+    /**
+     * Take idle connection, open new one if pool is not full yet or wait for a returned one.
+     * Broken connections are not returned, so the waiter opens a new one when they free place in the pool.
+     */
+    Connection borrow() throws ClientException {
+        long waitStart = Reporter.startEvent();
+        Connection connection = idle.poll();
+        while (connection == null) {
+            if (opened.incrementAndGet() <= size) {
+                connection = open();
+            } else {
+                opened.decrementAndGet();
+                try {
+                    connection = idle.poll(WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ClientException(e);
+                }
+            }
+        }
+        connection.borrowTime = System.nanoTime();
+        Reporter.addEvent(Reporter.STOPWATCH_POOL_WAIT, waitStart, connection.borrowTime);
+        return connection;
+    }
+
+    /**
+     * Return connection to pool. Broken connections are closed and will be reopened on demand.
+     */
+    void giveBack(Connection connection) {
+        busyTime.addAndGet(System.nanoTime() - connection.borrowTime);
+        if (connection.broken) {
+            connection.transport.close();
+            opened.decrementAndGet();
+            return;
+        }
+        idle.add(connection);
+    }
+
+    private Connection open() throws ClientException {
+        try {
+            log.debug("Open connection to {}:{}", host, port);
+            TTransport transport = new TFramedTransport(new TSocket(host, port));
+            transport.open();
+            Connection connection = new Connection(transport);
+            if (keySpace != null) {
+                connection.client.set_keyspace(keySpace);
+            }
+            return connection;
+        } catch (TException e) {
+            opened.decrementAndGet();
+            log.error(e.getMessage());
+            throw new ClientException(e);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package net.thumbtack.research.nosql.clients;
 import net.thumbtack.research.nosql.Configurator;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,9 +15,59 @@ import java.util.Set;
  * General interface for base method of NoSQL data bases
  */
 public interface Client {
-    void init(Configurator configurator) throws ClientException;
-    void write(String key, Map<String, ByteBuffer> value) throws ClientException;
-    Map<String, ByteBuffer> read(String key, Set<String> columnNames) throws ClientException;
+    /**
+     * One-time preparation of database before all clients are initialized:
+     * create schema, clean data of previous runs, etc.
+     */
+    void prepare(Configurator configurator) throws ClientException;
+
+    /**
+     * Connect to database
+     * @param host host to pin the client to, database default is used if it is null
+     */
+    void init(Configurator configurator, String host) throws ClientException;
+
+    /**
+     * Write record columns. Key of this and other single record methods may be a reusable buffer,
+     * it is used during the call only.
+     */
+    void write(CharSequence key, Map<String, ByteBuffer> value) throws ClientException;
+
+    /**
+     * Read record columns. The returned map may be reused by the next read of the same client.
+     */
+    Map<String, ByteBuffer> read(CharSequence key, Set<String> columnNames) throws ClientException;
+
+    /**
+     * Write several records in as few round trips as database allows
+     * @param values columns values by record key
+     */
+    void writeBatch(Map<String, Map<String, ByteBuffer>> values) throws ClientException;
+
+    /**
+     * Read several records in as few round trips as database allows
+     * @return columns values by record key, records which are not found may be absent
+     */
+    Map<String, Map<String, ByteBuffer>> readBatch(Collection<String> keys, Set<String> columnNames)
+            throws ClientException;
+
+    /**
+     * Start write without waiting for its result. Value must not be changed until the future is done.
+     * Blocks while the in-flight operations limit of the client is reached.
+     */
+    ClientFuture<Void> writeAsync(CharSequence key, Map<String, ByteBuffer> value) throws ClientException;
+
+    /**
+     * Start read without waiting for its result.
+     * Blocks while the in-flight operations limit of the client is reached.
+     */
+    ClientFuture<Map<String, ByteBuffer>> readAsync(CharSequence key, Set<String> columnNames) throws ClientException;
+
     void close() throws Exception;
     boolean isSlow();
+
+    /**
+     * @return host the client is pinned to
+     */
+    String getHost();
 }
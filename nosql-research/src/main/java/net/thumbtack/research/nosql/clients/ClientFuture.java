@@ -0,0 +1,90 @@
+package net.thumbtack.research.nosql.clients;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of asynchronous database operation. It is completed by client callback and remembers
+ * completion time, so latency can be measured without waiting for the result in the calling thread.
+ *
+ * @param <T> type of operation result
+ */
+public class ClientFuture<T> implements Future<T> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile T result;
+    private volatile Throwable error;
+    private volatile long completionTime;
+
+    /**
+     * @param value result of operation
+     * @return future which is already completed
+     */
+    public static <T> ClientFuture<T> completed(T value) {
+        ClientFuture<T> future = new ClientFuture<>();
+        future.set(value);
+        return future;
+    }
+
+    public void set(T value) {
+        result = value;
+        complete();
+    }
+
+    public void fail(Throwable cause) {
+        error = cause;
+        complete();
+    }
+
+    /**
+     * @return nanoTime when operation was completed or 0 if it is still in progress
+     */
+    public long getCompletionTime() {
+        return completionTime;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private void complete() {
+        if (completionTime == 0) {
+            completionTime = System.nanoTime();
+            done.countDown();
+        }
+    }
+
+    private T getResult() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
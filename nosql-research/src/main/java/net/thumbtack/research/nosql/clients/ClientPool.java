@@ -11,6 +11,8 @@ import java.util.Map;
 public final class ClientPool {
     public static final String DB_CASSANDRA = "cassandra";
     public static final String DB_AEROSPIKE = "aerospike";
+    public static final String DB_SIMULATED = "simulated";
+    public static final String DB_NOOP = "noop";
 
     private static final ClientPool instance = new ClientPool();
     private final Map<String, Class<? extends Client>> clientPool;
@@ -19,6 +21,8 @@ public final class ClientPool {
         clientPool = new HashMap<>();
         clientPool.put(DB_CASSANDRA, CassandraClient.class);
         clientPool.put(DB_AEROSPIKE, AerospikeClientDB.class);
+        clientPool.put(DB_SIMULATED, SimulatedClient.class);
+        clientPool.put(DB_NOOP, NoopClient.class);
     }
 
     public static Client get(String databaseName) throws IllegalAccessException, InstantiationException {
@@ -0,0 +1,76 @@
+package net.thumbtack.research.nosql.clients;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Client doing nothing, used to measure overhead of the harness itself.
+ * Read returns the last value written by the same client.
+ */
+public class NoopClient implements Client {
+
+    private String host;
+    private boolean slow;
+    private Map<String, ByteBuffer> lastWritten = Collections.emptyMap();
+
+    @Override
+    public void prepare(Configurator configurator) throws ClientException {
+    }
+
+    @Override
+    public void init(Configurator configurator, String host) throws ClientException {
+        this.host = host;
+        slow = configurator.isSlow(host);
+    }
+
+    @Override
+    public void write(CharSequence key, Map<String, ByteBuffer> value) throws ClientException {
+        lastWritten = value;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> read(CharSequence key, Set<String> columnNames) throws ClientException {
+        return lastWritten;
+    }
+
+    @Override
+    public void writeBatch(Map<String, Map<String, ByteBuffer>> values) throws ClientException {
+    }
+
+    @Override
+    public Map<String, Map<String, ByteBuffer>> readBatch(Collection<String> keys, Set<String> columnNames)
+            throws ClientException {
+        return new HashMap<>();
+    }
+
+    @Override
+    public ClientFuture<Void> writeAsync(CharSequence key, Map<String, ByteBuffer> value) throws ClientException {
+        lastWritten = value;
+        return ClientFuture.completed(null);
+    }
+
+    @Override
+    public ClientFuture<Map<String, ByteBuffer>> readAsync(CharSequence key, Set<String> columnNames) throws ClientException {
+        return ClientFuture.completed(lastWritten);
+    }
+
+    @Override
+    public void close() throws Exception {
+    }
+
+    @Override
+    public boolean isSlow() {
+        return slow;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,103 @@
+package net.thumbtack.research.nosql.clients;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Client of in-process replicated store, see {@link SimulatedStore} for its settings.
+ * Used to run scenarios without a database cluster and to measure overhead of the harness.
+ * Asynchronous operations do not block the caller, so pipelined scenarios overlap their requests.
+ * The host given to a client is the replica coordinating its requests, db.hosts are names of replicas.
+ */
+public class SimulatedClient implements Client {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedClient.class);
+
+    private SimulatedStore store;
+    private int replica;
+    private int readReplicas;
+    private String host;
+    private boolean slow;
+    private final Map<String, ByteBuffer> readResult = new HashMap<>();
+
+    @Override
+    public void prepare(Configurator configurator) throws ClientException {
+        SimulatedStore.create(configurator);
+    }
+
+    @Override
+    public void init(Configurator configurator, String host) throws ClientException {
+        store = SimulatedStore.get(configurator);
+        replica = store.getReplica(host);
+        this.host = store.getReplicaName(replica);
+        readReplicas = store.getReadReplicas(configurator);
+        slow = configurator.isSlow(this.host);
+        log.debug("Client initialization: replica {}", replica);
+    }
+
+    @Override
+    public void write(CharSequence key, Map<String, ByteBuffer> value) throws ClientException {
+        store.write(replica, key, value);
+    }
+
+    @Override
+    public Map<String, ByteBuffer> read(CharSequence key, Set<String> columnNames) throws ClientException {
+        readResult.clear();
+        store.read(replica, readReplicas, key, columnNames, readResult);
+        return readResult;
+    }
+
+    @Override
+    public void writeBatch(Map<String, Map<String, ByteBuffer>> values) throws ClientException {
+        for (Map.Entry<String, Map<String, ByteBuffer>> entry : values.entrySet()) {
+            store.write(replica, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, ByteBuffer>> readBatch(Collection<String> keys, Set<String> columnNames)
+            throws ClientException {
+        Map<String, Map<String, ByteBuffer>> result = new HashMap<>();
+        for (String key : keys) {
+            Map<String, ByteBuffer> columns = new HashMap<>();
+            if (store.read(replica, readReplicas, key, columnNames, columns)) {
+                result.put(key, columns);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ClientFuture<Void> writeAsync(CharSequence key, Map<String, ByteBuffer> value) throws ClientException {
+        ClientFuture<Void> future = new ClientFuture<>();
+        store.writeAsync(replica, key, value, future);
+        return future;
+    }
+
+    @Override
+    public ClientFuture<Map<String, ByteBuffer>> readAsync(CharSequence key, Set<String> columnNames) throws ClientException {
+        ClientFuture<Map<String, ByteBuffer>> future = new ClientFuture<>();
+        store.readAsync(replica, readReplicas, key, columnNames, future);
+        return future;
+    }
+
+    @Override
+    public void close() throws Exception {
+    }
+
+    @Override
+    public boolean isSlow() {
+        return slow;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+}
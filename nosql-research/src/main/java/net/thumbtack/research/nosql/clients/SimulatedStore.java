@@ -0,0 +1,392 @@
+package net.thumbtack.research.nosql.clients;
+
+import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.report.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory store with virtual replicas shared by all {@link SimulatedClient}s.
+ * <p/>
+ * A record keeps its last simulated.versions versions, every version has a time it becomes visible at on each
+ * replica. Older versions are kept too while none of the kept ones is visible on all replicas, so a read never
+ * misses the value which a real replica would still hold.
+ * Write is visible at once on the coordinator replica and on the next simulated.writeReplicas - 1 ones,
+ * other replicas get it after a replication delay. Read consults simulated.readReplicas replicas starting
+ * with the coordinator and returns the newest version visible on any of them, so stale reads are possible
+ * only if readReplicas + writeReplicas is not greater than count of replicas.
+ * <p/>
+ * Every client reads simulated.readReplicas of its own config, so clients may read at different levels.
+ * <p/>
+ * Delays are given in milliseconds as "constant:d", "uniform:min:max" or "exponential:mean".
+ * Replica named by db.slow has its latency and replication delay multiplied by simulated.slowFactor.
+ * <p/>
+ * Blocking operations wait for the latency in the calling thread. Asynchronous ones return at once and are
+ * done by a shared scheduler after the latency, so pipelined requests overlap as they do with a real database.
+ */
+final class SimulatedStore {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedStore.class);
+
+    private static final String REPLICAS_PROPERTY = "simulated.replicas";
+    private static final String READ_REPLICAS_PROPERTY = "simulated.readReplicas";
+    private static final String WRITE_REPLICAS_PROPERTY = "simulated.writeReplicas";
+    private static final String REPLICATION_DELAY_PROPERTY = "simulated.replicationDelay";
+    private static final String LATENCY_PROPERTY = "simulated.latency";
+    private static final String SLOW_FACTOR_PROPERTY = "simulated.slowFactor";
+    private static final String VERSIONS_PROPERTY = "simulated.versions";
+    private static final int DEFAULT_REPLICAS = 3;
+    private static final String DEFAULT_DELAY = "constant:0";
+    private static final double DEFAULT_SLOW_FACTOR = 10;
+    private static final int DEFAULT_VERSIONS = 8;
+
+    private static SimulatedStore instance;
+    private static ScheduledExecutorService scheduler;
+
+    private final String[] replicas;
+    private final int readReplicas;
+    private final int writeReplicas;
+    private final Delay replicationDelay;
+    private final Delay[] latency;
+    private final double[] factor;
+    private final int versionsCount;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ConcurrentHashMap<String, Cell> cells = new ConcurrentHashMap<>(1 << 16, 0.75f, 64);
+
+    /**
+     * Value of a record written by one write
+     */
+    private static final class Version {
+        private final long[] visibleAt;
+        private final Map<String, ByteBuffer> columns;
+
+        private Version(long[] visibleAt, Map<String, ByteBuffer> columns) {
+            this.visibleAt = visibleAt;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Last versions of a record, newest first
+     */
+    private static final class Cell {
+        private volatile Version[] versions = new Version[0];
+    }
+
+    /**
+     * Random delay in nanoseconds
+     */
+    static final class Delay {
+        private final String type;
+        private final double a;
+        private final double b;
+
+        private Delay(String type, double a, double b) {
+            this.type = type;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Delay parse(String value) {
+            String[] parts = value.split(":");
+            double a = parts.length > 1 ? Double.parseDouble(parts[1]) * 1000000 : 0;
+            double b = parts.length > 2 ? Double.parseDouble(parts[2]) * 1000000 : a;
+            switch (parts[0]) {
+                case "constant":
+                case "uniform":
+                case "exponential":
+                    return new Delay(parts[0], a, b);
+                default:
+                    throw new IllegalArgumentException("Unknown delay distribution " + value);
+            }
+        }
+
+        long sample() {
+            switch (type) {
+                case "uniform":
+                    return (long) (a + (b - a) * ThreadLocalRandom.current().nextDouble());
+                case "exponential":
+                    return (long) (-a * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+                default:
+                    return (long) a;
+            }
+        }
+    }
+
+    private SimulatedStore(Configurator configurator) {
+        String[] hosts = configurator.getDbHosts();
+        if (hosts.length > 0) {
+            replicas = hosts;
+        } else {
+            replicas = new String[configurator.getInt(REPLICAS_PROPERTY, DEFAULT_REPLICAS)];
+            for (int i = 0; i < replicas.length; i++) {
+                replicas[i] = "replica" + i;
+            }
+        }
+        readReplicas = Math.max(1, Math.min(replicas.length, configurator.getInt(READ_REPLICAS_PROPERTY, 1)));
+        writeReplicas = Math.max(1, Math.min(replicas.length, configurator.getInt(WRITE_REPLICAS_PROPERTY, 1)));
+        replicationDelay = Delay.parse(configurator.getString(REPLICATION_DELAY_PROPERTY, DEFAULT_DELAY));
+        String defaultLatency = configurator.getString(LATENCY_PROPERTY, DEFAULT_DELAY);
+        double slowFactor = configurator.getDouble(SLOW_FACTOR_PROPERTY, DEFAULT_SLOW_FACTOR);
+        latency = new Delay[replicas.length];
+        factor = new double[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            latency[i] = Delay.parse(configurator.getString(LATENCY_PROPERTY + "." + replicas[i], defaultLatency));
+            factor[i] = configurator.isSlow(replicas[i]) ? slowFactor : 1;
+        }
+        versionsCount = Math.max(1, configurator.getInt(VERSIONS_PROPERTY, DEFAULT_VERSIONS));
+        log.info("Simulated store: {} replicas, read from {}, write to {}, replication delay {}", new Object[]{
+                replicas.length, readReplicas, writeReplicas,
+                configurator.getString(REPLICATION_DELAY_PROPERTY, DEFAULT_DELAY)
+        });
+    }
+
+    /**
+     * Create new empty store, records of the previous one are dropped
+     */
+    static synchronized SimulatedStore create(Configurator configurator) {
+        instance = new SimulatedStore(configurator);
+        return instance;
+    }
+
+    static synchronized SimulatedStore get(Configurator configurator) {
+        if (instance == null) {
+            instance = new SimulatedStore(configurator);
+        }
+        return instance;
+    }
+
+    /**
+     * @return index of replica, replicas are assigned round robin if host is unknown
+     */
+    int getReplica(String host) {
+        for (int i = 0; i < replicas.length; i++) {
+            if (replicas[i].equals(host)) {
+                return i;
+            }
+        }
+        return (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+    }
+
+    String getReplicaName(int replica) {
+        return replicas[replica];
+    }
+
+    /**
+     * @return count of replicas consulted by reads of a client with the config
+     */
+    int getReadReplicas(Configurator configurator) {
+        return Math.max(1, Math.min(replicas.length, configurator.getInt(READ_REPLICAS_PROPERTY, readReplicas)));
+    }
+
+    void write(int coordinator, CharSequence key, Map<String, ByteBuffer> value) {
+        pause(coordinator);
+        put(coordinator, key.toString(), copy(value));
+    }
+
+    /**
+     * Write after the latency of the coordinator without blocking, the value is copied at once
+     */
+    void writeAsync(final int coordinator, CharSequence key, Map<String, ByteBuffer> value,
+                    final ClientFuture<Void> future) {
+        final String name = key.toString();
+        final Map<String, ByteBuffer> columns = copy(value);
+        schedule(coordinator, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(coordinator, name, columns);
+                    future.set(null);
+                } catch (RuntimeException e) {
+                    future.fail(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read after the latency of the coordinator without blocking, the future gets columns of the record,
+     * they are empty if the record is not visible
+     */
+    void readAsync(final int coordinator, final int readReplicas, CharSequence key, final Set<String> columnNames,
+                   final ClientFuture<Map<String, ByteBuffer>> future) {
+        final String name = key.toString();
+        schedule(coordinator, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Map<String, ByteBuffer> columns = new HashMap<>();
+                    get(coordinator, readReplicas, name, columnNames, columns);
+                    future.set(columns);
+                } catch (RuntimeException e) {
+                    future.fail(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Store new version of the record, columns are not copied
+     */
+    private void put(int coordinator, String name, Map<String, ByteBuffer> value) {
+        long now = System.nanoTime();
+        long[] visibleAt = new long[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            int replica = (coordinator + i) % replicas.length;
+            visibleAt[replica] = i < writeReplicas
+                    ? now
+                    : now + (long) (replicationDelay.sample() * factor[replica]);
+        }
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            Cell created = new Cell();
+            cell = cells.putIfAbsent(name, created);
+            if (cell == null) {
+                cell = created;
+            }
+        }
+        synchronized (cell) {
+            Version[] versions = cell.versions;
+            Map<String, ByteBuffer> columns = versions.length > 0
+                    ? new HashMap<>(versions[0].columns)
+                    : new HashMap<String, ByteBuffer>();
+            columns.putAll(value);
+            Version written = new Version(visibleAt, columns);
+            int count = Math.min(versions.length + 1, versionsCount);
+            boolean replicated = isReplicated(written, now);
+            for (int i = 0; i < count - 1 && !replicated; i++) {
+                replicated = isReplicated(versions[i], now);
+            }
+            while (!replicated && count < versions.length + 1) {
+                replicated = isReplicated(versions[count - 1], now);
+                count++;
+            }
+            Version[] updated = new Version[count];
+            updated[0] = written;
+            System.arraycopy(versions, 0, updated, 1, updated.length - 1);
+            cell.versions = updated;
+        }
+    }
+
+    /**
+     * @param readReplicas count of replicas consulted starting with the coordinator
+     * @return false if the record is not visible on the replicas read
+     */
+    boolean read(int coordinator, int readReplicas, CharSequence key, Set<String> columnNames,
+                 Map<String, ByteBuffer> result) {
+        pause(coordinator);
+        return get(coordinator, readReplicas, key.toString(), columnNames, result);
+    }
+
+    private boolean get(int coordinator, int readReplicas, String name, Set<String> columnNames,
+                        Map<String, ByteBuffer> result) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Version newest = null;
+        versions:
+        for (Version version : cell.versions) {
+            for (int i = 0; i < readReplicas; i++) {
+                if (version.visibleAt[(coordinator + i) % replicas.length] <= now) {
+                    newest = version;
+                    break versions;
+                }
+            }
+        }
+        if (newest == null) {
+            return false;
+        }
+        for (Map.Entry<String, ByteBuffer> column : newest.columns.entrySet()) {
+            if (columnNames == null || columnNames.isEmpty() || columnNames.contains(column.getKey())) {
+                result.put(column.getKey(), column.getValue().duplicate());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the version is visible on every replica at the time
+     */
+    private static boolean isReplicated(Version version, long time) {
+        for (long visibleAt : version.visibleAt) {
+            if (visibleAt > time) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pause(int replica) {
+        long delay = getLatency(replica);
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+
+    /**
+     * Run the operation after the latency of the replica, at once in the calling thread if there is no latency
+     */
+    private void schedule(int replica, Runnable operation) {
+        long delay = getLatency(replica);
+        if (delay > 0) {
+            getScheduler().schedule(operation, delay, TimeUnit.NANOSECONDS);
+        } else {
+            operation.run();
+        }
+    }
+
+    /**
+     * @return sampled latency of the replica, ns
+     */
+    private long getLatency(int replica) {
+        return (long) (latency[replica].sample() * factor[replica]);
+    }
+
+    /**
+     * Scheduler of asynchronous operations, its daemon threads do not keep the run alive
+     */
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            final ThreadFactory threads = new NamedThreadFactory("simulated");
+            scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = threads.newThread(r);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return scheduler;
+    }
+
+    private static Map<String, ByteBuffer> copy(Map<String, ByteBuffer> value) {
+        Map<String, ByteBuffer> columns = new HashMap<>(value.size() * 2);
+        for (Map.Entry<String, ByteBuffer> column : value.entrySet()) {
+            columns.put(column.getKey(), copy(column.getValue()));
+        }
+        return columns;
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        result.flip();
+        return result;
+    }
+}
@@ -0,0 +1,47 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * sc.keys.hotOps fraction of accesses goes to sc.keys.hotKeys fraction of keys (with the lowest indexes),
+ * the rest goes to other keys. Keys are chosen uniformly within both sets.
+ */
+public final class HotspotKeyChooser implements KeyChooser {
+    private static final String HOT_KEYS_PROPERTY = "sc.keys.hotKeys";
+    private static final String HOT_OPS_PROPERTY = "sc.keys.hotOps";
+    private static final double DEFAULT_HOT_KEYS = 0.2;
+    private static final double DEFAULT_HOT_OPS = 0.8;
+
+    private long keyCount;
+    private long hotKeys;
+    private double hotOps;
+
+    @Override
+    public void init(Configurator config, long keyCount) {
+        this.keyCount = keyCount;
+        double hotFraction = Math.max(0, Math.min(1, config.getDouble(HOT_KEYS_PROPERTY, DEFAULT_HOT_KEYS)));
+        hotKeys = Math.max(1, Math.min(keyCount, (long) (keyCount * hotFraction)));
+        hotOps = Math.max(0, Math.min(1, config.getDouble(HOT_OPS_PROPERTY, DEFAULT_HOT_OPS)));
+    }
+
+    @Override
+    public long nextRead() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (hotKeys == keyCount || random.nextDouble() < hotOps) {
+            return random.nextLong(hotKeys);
+        }
+        return hotKeys + random.nextLong(keyCount - hotKeys);
+    }
+
+    @Override
+    public long nextWrite() {
+        return nextRead();
+    }
+
+    @Override
+    public long getRank(long keyIdx) {
+        return keyIdx;
+    }
+}
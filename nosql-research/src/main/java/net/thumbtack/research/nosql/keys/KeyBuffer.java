@@ -0,0 +1,43 @@
+package net.thumbtack.research.nosql.keys;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable ASCII key filled by {@link KeySpace#encode(long, KeyBuffer)}. Clients use it during the call only,
+ * so one buffer serves all operations of a thread; {@link #toString()} makes a copy to keep.
+ */
+public final class KeyBuffer implements CharSequence {
+    private final byte[] chars = new byte[KeySpace.KEY_LENGTH];
+    private int length;
+
+    void set(int idx, byte c) {
+        chars[idx] = c;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (char) chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,28 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+/**
+ * Distribution of accessed keys selected by sc.keys. Keys are indexes from 0 to keyCount - 1,
+ * skewed choosers give the most popular keys the lowest indexes, so an index is a popularity rank too,
+ * except {@link LatestKeyChooser}. An instance belongs to one key set, {@link #nextWrite()} may be called
+ * by one thread and {@link #nextRead()} by another one.
+ */
+public interface KeyChooser {
+    void init(Configurator config, long keyCount);
+
+    /**
+     * @return index of the next key to read
+     */
+    long nextRead();
+
+    /**
+     * @return index of the next key to write
+     */
+    long nextWrite();
+
+    /**
+     * @return popularity rank of the key, 0 is the most popular one
+     */
+    long getRank(long keyIdx);
+}
@@ -0,0 +1,35 @@
+package net.thumbtack.research.nosql.keys;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of key access distributions selected by sc.keys
+ */
+public final class KeyChooserPool {
+    public static final String KEYS_UNIFORM = "uniform";
+    public static final String KEYS_ZIPFIAN = "zipfian";
+    public static final String KEYS_HOTSPOT = "hotspot";
+    public static final String KEYS_LATEST = "latest";
+    public static final String KEYS_SEQUENTIAL = "sequential";
+
+    private static final KeyChooserPool instance = new KeyChooserPool();
+
+    private final Map<String, Class<? extends KeyChooser>> chooserPool;
+
+    private KeyChooserPool() {
+        chooserPool = new HashMap<>();
+        chooserPool.put(KEYS_UNIFORM, UniformKeyChooser.class);
+        chooserPool.put(KEYS_ZIPFIAN, ZipfianKeyChooser.class);
+        chooserPool.put(KEYS_HOTSPOT, HotspotKeyChooser.class);
+        chooserPool.put(KEYS_LATEST, LatestKeyChooser.class);
+        chooserPool.put(KEYS_SEQUENTIAL, SequentialKeyChooser.class);
+    }
+
+    public static KeyChooser get(String chooserName) throws ReflectiveOperationException {
+        if (!instance.chooserPool.containsKey(chooserName)) {
+            throw new IllegalAccessException("Key chooser " + chooserName + " is not exist");
+        }
+        return instance.chooserPool.get(chooserName).getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,113 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keys derived on the fly from 64-bit indexes, so size of the key space costs neither heap nor startup time.
+ * <p/>
+ * Key is {@link #PREFIX_LENGTH} hex digits of a hash of the index and the run seed followed by
+ * {@link #INDEX_LENGTH} hex digits of the index: hashed prefix spreads neighbour indexes over partitions
+ * of ordered stores, the index (below 2^48) keeps keys unique. Runs with the same sc.keys.seed use the same keys,
+ * a random seed is taken and logged if it is not set, so every run writes fresh keys.
+ */
+public final class KeySpace {
+    private static final Logger log = LoggerFactory.getLogger(KeySpace.class);
+
+    public static final String SEED_PROPERTY = "sc.keys.seed";
+    public static final int PREFIX_LENGTH = 12;
+    public static final int INDEX_LENGTH = 12;
+    public static final int KEY_LENGTH = PREFIX_LENGTH + INDEX_LENGTH;
+    /** Indexes must be below it to fit {@link #INDEX_LENGTH} hex digits */
+    public static final long INDEX_LIMIT = 1L << (4 * INDEX_LENGTH);
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private static KeySpace instance;
+
+    private final long seed;
+    private final AtomicLong allocated = new AtomicLong();
+
+    private KeySpace(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Get key space of the run, it is created by the first call
+     */
+    public static synchronized KeySpace get(Configurator config) {
+        if (instance == null) {
+            String seed = config.getString(SEED_PROPERTY, null);
+            instance = new KeySpace(seed == null || seed.isEmpty()
+                    ? ThreadLocalRandom.current().nextLong()
+                    : Long.parseLong(seed));
+            log.info("Key space seed: {}", instance.seed);
+        }
+        return instance;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return new index not returned before in this run, for scenarios owning their keys
+     */
+    public long allocate() {
+        return allocate(1);
+    }
+
+    /**
+     * @return first index of count new indexes not returned before in this run
+     * @throws IllegalStateException if the indexes do not fit {@link #INDEX_LIMIT}, keys would not be unique
+     */
+    public long allocate(long count) {
+        if (count < 0 || count > INDEX_LIMIT) {
+            throw new IllegalArgumentException("Count of keys must be from 0 to " + INDEX_LIMIT + ", it is " + count);
+        }
+        long first = allocated.getAndAdd(count);
+        if (first > INDEX_LIMIT - count) {
+            throw new IllegalStateException("Key space is exhausted: " + count + " keys are requested, "
+                    + Math.max(INDEX_LIMIT - first, 0) + " are left");
+        }
+        return first;
+    }
+
+    /**
+     * Write key of the index to the buffer, nothing is allocated
+     * @return the buffer
+     */
+    public KeyBuffer encode(long index, KeyBuffer key) {
+        long prefix = mix(index ^ seed);
+        for (int i = PREFIX_LENGTH - 1; i >= 0; i--) {
+            key.set(i, HEX_DIGITS[(int) prefix & 0xf]);
+            prefix >>>= 4;
+        }
+        for (int i = KEY_LENGTH - 1; i >= PREFIX_LENGTH; i--) {
+            key.set(i, HEX_DIGITS[(int) index & 0xf]);
+            index >>>= 4;
+        }
+        key.setLength(KEY_LENGTH);
+        return key;
+    }
+
+    /**
+     * @return key of the index as a new String
+     */
+    public String toKey(long index) {
+        return encode(index, new KeyBuffer()).toString();
+    }
+
+    /**
+     * Finalizer of SplitMix64, every bit of the result depends on every bit of the value
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,43 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes go through keys one after another, wrapping around, reads prefer the most recently written keys:
+ * distance back from the last written key is zipfian (see {@link ZipfianKeyChooser}) and it is the rank
+ * of the key. The position of the last write belongs to the chooser, so to its key set.
+ */
+public final class LatestKeyChooser implements KeyChooser {
+    private final AtomicLong written = new AtomicLong();
+
+    private long keyCount;
+    private final ZipfianKeyChooser distance = new ZipfianKeyChooser();
+
+    @Override
+    public void init(Configurator config, long keyCount) {
+        this.keyCount = keyCount;
+        distance.init(config, keyCount);
+    }
+
+    void init(long keyCount, double theta) {
+        this.keyCount = keyCount;
+        distance.init(keyCount, theta);
+    }
+
+    @Override
+    public long nextRead() {
+        return Math.floorMod(written.get() - 1 - distance.nextRead(), keyCount);
+    }
+
+    @Override
+    public long nextWrite() {
+        return Math.floorMod(written.getAndIncrement(), keyCount);
+    }
+
+    @Override
+    public long getRank(long keyIdx) {
+        return Math.floorMod(written.get() - 1 - keyIdx, keyCount);
+    }
+}
@@ -0,0 +1,41 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reads and writes go through all keys one after another, wrapping around.
+ * They start at random keys, so choosers do not access the same key at once.
+ */
+public final class SequentialKeyChooser implements KeyChooser {
+    private long keyCount;
+    private long nextRead;
+    private long nextWrite;
+
+    @Override
+    public void init(Configurator config, long keyCount) {
+        this.keyCount = keyCount;
+        nextRead = ThreadLocalRandom.current().nextLong(keyCount);
+        nextWrite = ThreadLocalRandom.current().nextLong(keyCount);
+    }
+
+    @Override
+    public long nextRead() {
+        long key = nextRead;
+        nextRead = key + 1 < keyCount ? key + 1 : 0;
+        return key;
+    }
+
+    @Override
+    public long nextWrite() {
+        long key = nextWrite;
+        nextWrite = key + 1 < keyCount ? key + 1 : 0;
+        return key;
+    }
+
+    @Override
+    public long getRank(long keyIdx) {
+        return keyIdx;
+    }
+}
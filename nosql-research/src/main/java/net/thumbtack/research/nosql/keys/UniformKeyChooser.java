@@ -0,0 +1,32 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * All keys are accessed equally often
+ */
+public final class UniformKeyChooser implements KeyChooser {
+    private long keyCount;
+
+    @Override
+    public void init(Configurator config, long keyCount) {
+        this.keyCount = keyCount;
+    }
+
+    @Override
+    public long nextRead() {
+        return ThreadLocalRandom.current().nextLong(keyCount);
+    }
+
+    @Override
+    public long nextWrite() {
+        return nextRead();
+    }
+
+    @Override
+    public long getRank(long keyIdx) {
+        return keyIdx;
+    }
+}
@@ -0,0 +1,90 @@
+package net.thumbtack.research.nosql.keys;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Key of rank i is accessed with probability proportional to 1 / (i + 1)^theta, theta is sc.keys.theta
+ * from 0 (uniform) to 1 (exclusive). Uses the algorithm of Gray et al. "Quickly generating billion-record
+ * synthetic databases", as YCSB does.
+ */
+public final class ZipfianKeyChooser implements KeyChooser {
+    private static final String THETA_PROPERTY = "sc.keys.theta";
+    private static final double DEFAULT_THETA = 0.99;
+    /** Zeta is summed exactly up to this count of keys, the rest is approximated by integral */
+    private static final long EXACT_ZETA_LIMIT = 10000000;
+
+    private static final Map<String, Double> zetaCache = new ConcurrentHashMap<>();
+
+    private long keyCount;
+    private double theta;
+    private double zetan;
+    private double alpha;
+    private double eta;
+    private double secondRankBound;
+
+    @Override
+    public void init(Configurator config, long keyCount) {
+        init(keyCount, config.getDouble(THETA_PROPERTY, DEFAULT_THETA));
+    }
+
+    void init(long keyCount, double theta) {
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException(THETA_PROPERTY + " must be from 0 to 1 exclusive");
+        }
+        this.keyCount = keyCount;
+        this.theta = theta;
+        zetan = zeta(keyCount, theta);
+        alpha = 1 / (1 - theta);
+        eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        secondRankBound = 1 + Math.pow(0.5, theta);
+    }
+
+    @Override
+    public long nextRead() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetan;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < secondRankBound) {
+            return Math.min(1, keyCount - 1);
+        }
+        return Math.min((long) (keyCount * Math.pow(eta * u - eta + 1, alpha)), keyCount - 1);
+    }
+
+    @Override
+    public long nextWrite() {
+        return nextRead();
+    }
+
+    /**
+     * @return sum of 1 / i^theta for i from 1 to n, cached as it is the same for all threads
+     */
+    private static double zeta(long n, double theta) {
+        String key = n + ":" + theta;
+        Double cached = zetaCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long exact = Math.min(n, EXACT_ZETA_LIMIT);
+        double sum = 0;
+        for (long i = 1; i <= exact; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        if (n > exact) {
+            // midpoint rule: sum of f(i) for i in (exact, n] is close to integral of f from exact + 0.5 to n + 0.5
+            sum += (Math.pow(n + 0.5, 1 - theta) - Math.pow(exact + 0.5, 1 - theta)) / (1 - theta);
+        }
+        zetaCache.put(key, sum);
+        return sum;
+    }
+
+    @Override
+    public long getRank(long keyIdx) {
+        return keyIdx;
+    }
+}
@@ -0,0 +1,23 @@
+package net.thumbtack.research.nosql.load;
+
+import net.thumbtack.research.nosql.Configurator;
+
+/**
+ * Fixed rate of sc.rate actions per second
+ */
+public final class ConstantLoadProfile implements LoadProfile {
+    private static final String RATE_PROPERTY = "sc.rate";
+
+    private double rate;
+
+    @Override
+    public void init(Configurator config) {
+        rate = config.getScRate();
+        LoadProfilePool.checkPositive(RATE_PROPERTY, rate);
+    }
+
+    @Override
+    public double getRate(long elapsed) {
+        return rate;
+    }
+}
@@ -0,0 +1,16 @@
+package net.thumbtack.research.nosql.load;
+
+import net.thumbtack.research.nosql.Configurator;
+
+/**
+ * Target request rate of an open-loop run as a function of time
+ */
+public interface LoadProfile {
+    void init(Configurator config);
+
+    /**
+     * @param elapsed nanoseconds since run start
+     * @return target rate of whole run in actions per second, zero or less means pause
+     */
+    double getRate(long elapsed);
+}
@@ -0,0 +1,42 @@
+package net.thumbtack.research.nosql.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of open-loop load profiles selected by sc.rate.profile
+ */
+public final class LoadProfilePool {
+    public static final String PROFILE_CONSTANT = "constant";
+    public static final String PROFILE_STEP = "step";
+    public static final String PROFILE_SPIKE = "spike";
+    public static final String PROFILE_SINUSOID = "sinusoid";
+
+    private static final LoadProfilePool instance = new LoadProfilePool();
+
+    private final Map<String, Class<? extends LoadProfile>> profilePool;
+
+    private LoadProfilePool() {
+        profilePool = new HashMap<>();
+        profilePool.put(PROFILE_CONSTANT, ConstantLoadProfile.class);
+        profilePool.put(PROFILE_STEP, StepLoadProfile.class);
+        profilePool.put(PROFILE_SPIKE, SpikeLoadProfile.class);
+        profilePool.put(PROFILE_SINUSOID, SinusoidLoadProfile.class);
+    }
+
+    public static LoadProfile get(String profileName) throws ReflectiveOperationException {
+        if (!instance.profilePool.containsKey(profileName)) {
+            throw new IllegalAccessException("Load profile " + profileName + " is not exist");
+        }
+        return instance.profilePool.get(profileName).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * @throws IllegalArgumentException if value of the profile property is not positive
+     */
+    static void checkPositive(String property, double value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(property + " must be positive, it is " + value);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.thumbtack.research.nosql.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Intended start times of actions of one scenario thread in open-loop mode.
+ * Each thread gets an even share of the profile rate, thread schedules are staggered
+ * so that the whole run does not start its actions in bursts.
+ */
+public final class Schedule {
+    private static final long NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long PAUSE_STEP = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Longest pause of a profile, a profile which never gets a positive rate again fails after it */
+    private static final long MAX_PAUSE = TimeUnit.HOURS.toNanos(1);
+
+    private final LoadProfile profile;
+    private final int threads;
+    private final long startTime;
+    private long intendedStart;
+
+    /**
+     * @param profile load profile of whole run
+     * @param threads count of threads sharing the profile rate
+     * @param threadIdx index of thread, used for staggering
+     * @param startTime nanoTime of run start
+     */
+    public Schedule(LoadProfile profile, int threads, int threadIdx, long startTime) {
+        this.profile = profile;
+        this.threads = threads;
+        this.startTime = startTime;
+        this.intendedStart = startTime + getInterval(0) * (threadIdx % threads) / threads;
+    }
+
+    /**
+     * @return intended start nanoTime of next action
+     */
+    public long next() {
+        long result = intendedStart;
+        intendedStart += getInterval(intendedStart - startTime);
+        return result;
+    }
+
+    /**
+     * Park current thread until given nanoTime. Returns immediately if the time has already passed.
+     * @param time nanoTime to wait for
+     */
+    public static void waitUntil(long time) {
+        long delay;
+        while ((delay = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+
+    private long getInterval(long elapsed) {
+        long pause = 0;
+        double rate;
+        while ((rate = profile.getRate(elapsed + pause)) <= 0) {
+            pause += PAUSE_STEP;
+            if (pause > MAX_PAUSE) {
+                throw new IllegalStateException("Load profile rate is not positive for "
+                        + TimeUnit.NANOSECONDS.toMinutes(MAX_PAUSE) + " minutes after "
+                        + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms of the run");
+            }
+        }
+        return pause + Math.max(1L, (long) (NANOS_IN_SECOND * threads / rate));
+    }
+}
@@ -0,0 +1,33 @@
+package net.thumbtack.research.nosql.load;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate oscillating around sc.rate by sc.rate.sinusoid.amplitude with period of sc.rate.sinusoid.period ms
+ */
+public final class SinusoidLoadProfile implements LoadProfile {
+    private static final String RATE_PROPERTY = "sc.rate";
+    private static final String AMPLITUDE_PROPERTY = "sc.rate.sinusoid.amplitude";
+    private static final String PERIOD_PROPERTY = "sc.rate.sinusoid.period";
+
+    private double rate;
+    private double amplitude;
+    private long period;
+
+    @Override
+    public void init(Configurator config) {
+        rate = config.getScRate();
+        amplitude = config.getDouble(AMPLITUDE_PROPERTY, rate / 2);
+        long periodMs = config.getLong(PERIOD_PROPERTY, 60000L);
+        period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        LoadProfilePool.checkPositive(RATE_PROPERTY, rate);
+        LoadProfilePool.checkPositive(PERIOD_PROPERTY, periodMs);
+    }
+
+    @Override
+    public double getRate(long elapsed) {
+        return rate + amplitude * Math.sin(2 * Math.PI * (elapsed % period) / period);
+    }
+}
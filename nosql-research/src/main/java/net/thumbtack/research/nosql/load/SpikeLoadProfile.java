@@ -0,0 +1,49 @@
+package net.thumbtack.research.nosql.load;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base rate of sc.rate with spikes of sc.rate.spike.rate lasting sc.rate.spike.duration ms.
+ * The first spike starts at sc.rate.spike.start ms and repeats every sc.rate.spike.period ms (zero means once)
+ */
+public final class SpikeLoadProfile implements LoadProfile {
+    private static final String RATE_PROPERTY = "sc.rate";
+    private static final String SPIKE_RATE_PROPERTY = "sc.rate.spike.rate";
+    private static final String START_PROPERTY = "sc.rate.spike.start";
+    private static final String DURATION_PROPERTY = "sc.rate.spike.duration";
+    private static final String PERIOD_PROPERTY = "sc.rate.spike.period";
+
+    private double rate;
+    private double spikeRate;
+    private long start;
+    private long duration;
+    private long period;
+
+    @Override
+    public void init(Configurator config) {
+        rate = config.getScRate();
+        spikeRate = config.getDouble(SPIKE_RATE_PROPERTY, rate * 10);
+        start = TimeUnit.MILLISECONDS.toNanos(config.getLong(START_PROPERTY, 10000L));
+        duration = TimeUnit.MILLISECONDS.toNanos(config.getLong(DURATION_PROPERTY, 1000L));
+        long periodMs = config.getLong(PERIOD_PROPERTY, 0L);
+        period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        LoadProfilePool.checkPositive(RATE_PROPERTY, rate);
+        if (periodMs != 0) {
+            LoadProfilePool.checkPositive(PERIOD_PROPERTY, periodMs);
+        }
+    }
+
+    @Override
+    public double getRate(long elapsed) {
+        if (elapsed < start) {
+            return rate;
+        }
+        long sinceStart = elapsed - start;
+        if (period > 0) {
+            sinceStart %= period;
+        }
+        return sinceStart < duration ? spikeRate : rate;
+    }
+}
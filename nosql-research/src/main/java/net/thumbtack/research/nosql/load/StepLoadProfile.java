@@ -0,0 +1,38 @@
+package net.thumbtack.research.nosql.load;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Step ramp: starts from sc.rate and adds sc.rate.step.increment every sc.rate.step.interval ms
+ * until sc.rate.step.max is reached (zero means no limit)
+ */
+public final class StepLoadProfile implements LoadProfile {
+    private static final String RATE_PROPERTY = "sc.rate";
+    private static final String INCREMENT_PROPERTY = "sc.rate.step.increment";
+    private static final String INTERVAL_PROPERTY = "sc.rate.step.interval";
+    private static final String MAX_PROPERTY = "sc.rate.step.max";
+
+    private double rate;
+    private double increment;
+    private long interval;
+    private double max;
+
+    @Override
+    public void init(Configurator config) {
+        rate = config.getScRate();
+        increment = config.getDouble(INCREMENT_PROPERTY, rate);
+        long intervalMs = config.getLong(INTERVAL_PROPERTY, 10000L);
+        interval = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        max = config.getDouble(MAX_PROPERTY, 0.0);
+        LoadProfilePool.checkPositive(RATE_PROPERTY, rate);
+        LoadProfilePool.checkPositive(INTERVAL_PROPERTY, intervalMs);
+    }
+
+    @Override
+    public double getRate(long elapsed) {
+        double r = rate + increment * (elapsed / interval);
+        return max > 0 ? Math.min(r, max) : r;
+    }
+}
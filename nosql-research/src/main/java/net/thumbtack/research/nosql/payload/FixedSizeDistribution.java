@@ -0,0 +1,22 @@
+package net.thumbtack.research.nosql.payload;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.Random;
+
+/**
+ * Every payload has sc.stringSize bytes
+ */
+public final class FixedSizeDistribution implements SizeDistribution {
+    private int size;
+
+    @Override
+    public void init(Configurator config) {
+        size = (int) config.getSCStringSize();
+    }
+
+    @Override
+    public int nextSize(Random random) {
+        return size;
+    }
+}
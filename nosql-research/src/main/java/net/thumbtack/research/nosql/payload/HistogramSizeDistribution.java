@@ -0,0 +1,79 @@
+package net.thumbtack.research.nosql.payload;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Payload sizes follow a histogram read from sc.payload.histogram file, e.g. sampled from production values.
+ * Every line of the file is a size in bytes and its count (or weight) separated by spaces, tabs or comma,
+ * empty lines and lines starting with # are skipped.
+ */
+public final class HistogramSizeDistribution implements SizeDistribution {
+    private static final Logger log = LoggerFactory.getLogger(HistogramSizeDistribution.class);
+
+    private static final String HISTOGRAM_PROPERTY = "sc.payload.histogram";
+
+    private int[] sizes;
+    private double[] cumulativeWeights;
+
+    @Override
+    public void init(Configurator config) {
+        String path = config.getString(HISTOGRAM_PROPERTY, null);
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException(HISTOGRAM_PROPERTY + " is not set");
+        }
+        List<Integer> buckets = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("[\\s,]+");
+                double weight = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+                if (weight > 0) {
+                    buckets.add(Integer.parseInt(parts[0]));
+                    weights.add(weight);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+        if (buckets.isEmpty()) {
+            throw new IllegalArgumentException("Size histogram " + path + " is empty");
+        }
+        sizes = new int[buckets.size()];
+        cumulativeWeights = new double[buckets.size()];
+        double total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = buckets.get(i);
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+        log.info("Payload size histogram {}: {} buckets", path, sizes.length);
+    }
+
+    @Override
+    public int nextSize(Random random) {
+        double point = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int idx = Arrays.binarySearch(cumulativeWeights, point);
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        return sizes[Math.min(idx, sizes.length - 1)];
+    }
+}
@@ -0,0 +1,104 @@
+package net.thumbtack.research.nosql.payload;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Payloads generated once before the run and shared by all scenarios, so producing a value costs nothing.
+ * <p/>
+ * sc.payload.poolSize payloads are generated with sizes of sc.payload distribution (see {@link SizeDistributionPool}),
+ * each one has its own heap array, or all of them are slices of one direct buffer if sc.payload.direct is set.
+ * Content is random lowercase letters. sc.payload.compressibility is the fraction of every
+ * {@link #BLOCK_SIZE} bytes block filled with one repeated letter, so 0 gives hardly compressible payloads
+ * and 0.9 gives ones which compress about ten times.
+ */
+public final class PayloadPool {
+    private static final Logger log = LoggerFactory.getLogger(PayloadPool.class);
+
+    private static final String DISTRIBUTION_PROPERTY = "sc.payload";
+    private static final String POOL_SIZE_PROPERTY = "sc.payload.poolSize";
+    private static final String COMPRESSIBILITY_PROPERTY = "sc.payload.compressibility";
+    private static final String DIRECT_PROPERTY = "sc.payload.direct";
+    private static final int DEFAULT_POOL_SIZE = 1024;
+    static final int BLOCK_SIZE = 64;
+
+    private static final byte[] LETTERS = "abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    private static PayloadPool instance;
+
+    private final ByteBuffer[] payloads;
+
+    private PayloadPool(Configurator config) {
+        SizeDistribution distribution;
+        String distributionName = config.getString(DISTRIBUTION_PROPERTY, SizeDistributionPool.SIZE_FIXED);
+        try {
+            distribution = SizeDistributionPool.get(distributionName);
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+        distribution.init(config);
+        double compressibility = Math.max(0, Math.min(1, config.getDouble(COMPRESSIBILITY_PROPERTY, 0.0)));
+        boolean direct = Boolean.parseBoolean(config.getString(DIRECT_PROPERTY, "false"));
+        Random random = new Random();
+
+        payloads = new ByteBuffer[Math.max(config.getInt(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE), 1)];
+        int[] sizes = new int[payloads.length];
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Math.max(distribution.nextSize(random), 0);
+            total += sizes[i];
+        }
+        if (direct && total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Payload pool of " + total + " bytes does not fit a direct buffer");
+        }
+        ByteBuffer region = direct ? ByteBuffer.allocateDirect((int) total) : null;
+        byte[] block = new byte[BLOCK_SIZE];
+        int randomBytes = (int) Math.round((1 - compressibility) * BLOCK_SIZE);
+        for (int i = 0; i < payloads.length; i++) {
+            ByteBuffer payload;
+            if (region != null) {
+                region.limit(region.position() + sizes[i]);
+                payload = region.slice();
+                region.position(region.limit());
+            } else {
+                payload = ByteBuffer.allocate(sizes[i]);
+            }
+            while (payload.hasRemaining()) {
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    block[j] = j < randomBytes ? LETTERS[random.nextInt(LETTERS.length)] : LETTERS[0];
+                }
+                payload.put(block, 0, Math.min(BLOCK_SIZE, payload.remaining()));
+            }
+            payload.flip();
+            payloads[i] = payload;
+        }
+        log.info("Payload pool: {} {} payloads, {} bytes, compressibility {}", new Object[]{
+                payloads.length, distributionName, total, compressibility
+        });
+    }
+
+    /**
+     * Get pool of the run, it is generated by the first call
+     */
+    public static synchronized PayloadPool get(Configurator config) {
+        if (instance == null) {
+            instance = new PayloadPool(config);
+        }
+        return instance;
+    }
+
+    /**
+     * @return random payload of the pool. Bytes are shared by all callers and must not be modified,
+     * the buffer itself is a new view, so its position may be changed.
+     */
+    public ByteBuffer next() {
+        return payloads[ThreadLocalRandom.current().nextInt(payloads.length)].duplicate();
+    }
+}
@@ -0,0 +1,17 @@
+package net.thumbtack.research.nosql.payload;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.Random;
+
+/**
+ * Distribution of payload sizes selected by sc.payload
+ */
+public interface SizeDistribution {
+    void init(Configurator config);
+
+    /**
+     * @return size of the next payload in bytes
+     */
+    int nextSize(Random random);
+}
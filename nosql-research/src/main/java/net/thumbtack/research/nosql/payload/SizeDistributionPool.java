@@ -0,0 +1,31 @@
+package net.thumbtack.research.nosql.payload;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of payload size distributions selected by sc.payload
+ */
+public final class SizeDistributionPool {
+    public static final String SIZE_FIXED = "fixed";
+    public static final String SIZE_UNIFORM = "uniform";
+    public static final String SIZE_HISTOGRAM = "histogram";
+
+    private static final SizeDistributionPool instance = new SizeDistributionPool();
+
+    private final Map<String, Class<? extends SizeDistribution>> distributionPool;
+
+    private SizeDistributionPool() {
+        distributionPool = new HashMap<>();
+        distributionPool.put(SIZE_FIXED, FixedSizeDistribution.class);
+        distributionPool.put(SIZE_UNIFORM, UniformSizeDistribution.class);
+        distributionPool.put(SIZE_HISTOGRAM, HistogramSizeDistribution.class);
+    }
+
+    public static SizeDistribution get(String distributionName) throws ReflectiveOperationException {
+        if (!instance.distributionPool.containsKey(distributionName)) {
+            throw new IllegalAccessException("Payload size distribution " + distributionName + " is not exist");
+        }
+        return instance.distributionPool.get(distributionName).getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,30 @@
+package net.thumbtack.research.nosql.payload;
+
+import net.thumbtack.research.nosql.Configurator;
+
+import java.util.Random;
+
+/**
+ * Payload size is uniformly distributed from sc.payload.min to sc.payload.max bytes inclusive
+ */
+public final class UniformSizeDistribution implements SizeDistribution {
+    private static final String MIN_PROPERTY = "sc.payload.min";
+    private static final String MAX_PROPERTY = "sc.payload.max";
+
+    private int min;
+    private int max;
+
+    @Override
+    public void init(Configurator config) {
+        min = config.getInt(MIN_PROPERTY, 0);
+        max = config.getInt(MAX_PROPERTY, (int) config.getSCStringSize());
+        if (max < min) {
+            throw new IllegalArgumentException(MAX_PROPERTY + " is less than " + MIN_PROPERTY);
+        }
+    }
+
+    @Override
+    public int nextSize(Random random) {
+        return min + random.nextInt(max - min + 1);
+    }
+}
@@ -4,30 +4,6 @@ import net.thumbtack.research.nosql.Configurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-
-/**
- * Event to be registered/aggregated
- */
-class Event {
-    boolean unique;
-    private long mark;
-
-    Event(long v, boolean unique) {
-        this.mark = v;
-        this.unique = unique;
-    }
-
-    public int hashCode() {
-        return (int)mark;
-    }
-
-    public boolean equals(Object o) {
-        return ((Event)o).mark == this.mark
-                && unique == this.unique;
-    }
-}
-
 public class AggregatedReporter {
 
     private static final Logger tslog = LoggerFactory.getLogger("timeseries");
@@ -36,44 +12,87 @@ public class AggregatedReporter {
 
     public static final int BUFFER_SIZE = 100000;
 
-    private static BatchUpdater<Event> eventUpdater;
+    private static final String OVERFLOW_PROPERTY = "report.overflow";
+
+    private static final double NANOS_IN_MILLI = 1000000.0;
+
+    private static BatchUpdater eventUpdater;
 
     public static void configure(Configurator config) {
-        tslog.debug("Time\tWrites\tReads\tErrors\tErrors on slow\tRead avg\tWrite avg");
-        eventUpdater = new BatchUpdater<Event>("aggregated-event", BUFFER_SIZE) {{
-            addEvent(EVENT_OLD_VALUE, new FlushEvent<Event>() {
-                public void flush(Collection<Event> buffer) {
-                    long readCount = Reporter.getCount(Reporter.STOPWATCH_READ_TIME_SERIES);
-                    double readMean = Reporter.getMean(Reporter.STOPWATCH_READ_TIME_SERIES);
-                    long writeCount = Reporter.getCount(Reporter.STOPWATCH_WRITE_TIME_SERIES);
-                    double writeMean = Reporter.getMean(Reporter.STOPWATCH_WRITE_TIME_SERIES);
-                    Reporter.reset(Reporter.STOPWATCH_READ_TIME_SERIES);
-                    Reporter.reset(Reporter.STOPWATCH_WRITE_TIME_SERIES);
-
-                    long unique = 0L;
-                    for (Event e: buffer) {
-                        if (e.unique) {
-                            unique++;
-                        }
+        tslog.debug("Time\tWrites\tReads\tErrors\tErrors on slow\tRead avg\tWrite avg"
+                + "\tRead p50\tRead p99\tRead max\tWrite p50\tWrite p99\tWrite max"
+                + "\tStaleness avg\tStaleness max");
+        BatchUpdater.OverflowPolicy overflow = BatchUpdater.OverflowPolicy.valueOf(
+                config.getString(OVERFLOW_PROPERTY, BatchUpdater.OverflowPolicy.drop.name()));
+        eventUpdater = new BatchUpdater("aggregated-event", BUFFER_SIZE, overflow) {{
+            addEvent(EVENT_OLD_VALUE, new FlushEvent() {
+                private long count;
+                private long unique;
+                private long staleness;
+                private long maxStaleness;
+
+                public void onEvent(long event) {
+                    count++;
+                    if (isUnique(event)) {
+                        unique++;
                     }
+                    long versions = getValue(event);
+                    staleness += versions;
+                    maxStaleness = Math.max(maxStaleness, versions);
+                }
+
+                public void flush() {
+                    LatencyHistogram reads = Reporter.getIntervalHistogram(Reporter.STOPWATCH_READ_TIME_SERIES);
+                    LatencyHistogram writes = Reporter.getIntervalHistogram(Reporter.STOPWATCH_WRITE_TIME_SERIES);
+                    LatencyHistogram all = new LatencyHistogram();
+                    all.add(reads);
+                    all.add(writes);
+                    Warmup.onInterval(all.getCount(), all.getMean());
 
-                    tslog.debug("{}\t{}\t{}\t{}\t{}\t{}\t{}", new Object[]{
+                    tslog.debug("{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}", new Object[]{
                             System.nanoTime(),
-                            writeCount,
-                            readCount,
-                            buffer.size(),
+                            writes.getCount(),
+                            reads.getCount(),
+                            count,
                             unique,
-                            String.format("%.2f", readMean),
-                            String.format("%.2f", writeMean)
+                            toMillis(reads.getMean()),
+                            toMillis(writes.getMean()),
+                            toMillis(reads.getValueAtPercentile(50)),
+                            toMillis(reads.getValueAtPercentile(99)),
+                            toMillis(reads.getMax()),
+                            toMillis(writes.getValueAtPercentile(50)),
+                            toMillis(writes.getValueAtPercentile(99)),
+                            toMillis(writes.getMax()),
+                            count == 0 ? "0.00" : String.format("%.2f", (double) staleness / count),
+                            maxStaleness
                     });
+                    count = 0;
+                    unique = 0;
+                    staleness = 0;
+                    maxStaleness = 0;
                 }
             });
         }};
     }
 
-    public static void addEvent(int type, boolean unique) {
-        Event event = new Event(System.nanoTime(), unique);
-        eventUpdater.add(type, event);
+    private static String toMillis(double nanos) {
+        return String.format("%.2f", nanos / NANOS_IN_MILLI);
+    }
+
+    /**
+     * Register event, it is encoded into long as its value shifted left with unique flag in the lowest bit
+     * @param value non-negative value of the event, e.g. staleness of a read in versions
+     */
+    public static void addEvent(int type, long value, boolean unique) {
+        eventUpdater.add(type, value << 1 | (unique ? 1 : 0));
+    }
+
+    private static boolean isUnique(long event) {
+        return (event & 1) != 0;
+    }
+
+    private static long getValue(long event) {
+        return event >>> 1;
     }
 
     public static void startFlushTimer(final int flushINterval) {
@@ -0,0 +1,62 @@
+package net.thumbtack.research.nosql.report;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures heap allocated by the current thread, if JVM supports it.
+ * Bytes allocated by the measurement itself are subtracted.
+ */
+public final class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean threadBean = getThreadBean();
+    private static final long overhead = measureOverhead();
+
+    private AllocationMeter() {}
+
+    public static boolean isSupported() {
+        return threadBean != null;
+    }
+
+    /**
+     * @return bytes allocated by current thread since its start
+     */
+    public static long getAllocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param start value of {@link #getAllocatedBytes()} at the beginning of measured code
+     * @return bytes allocated by current thread since start
+     */
+    public static long getAllocatedSince(long start) {
+        return Math.max(0, getAllocatedBytes() - start - overhead);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) bean;
+        if (!result.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!result.isThreadAllocatedMemoryEnabled()) {
+            result.setThreadAllocatedMemoryEnabled(true);
+        }
+        return result;
+    }
+
+    private static long measureOverhead() {
+        if (threadBean == null) {
+            return 0;
+        }
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long start = getAllocatedBytes();
+            result = Math.min(result, getAllocatedBytes() - start);
+        }
+        return result;
+    }
+}
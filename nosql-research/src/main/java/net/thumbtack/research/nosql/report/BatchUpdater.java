@@ -7,17 +7,22 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * This class provides buffering for frequent and probably duplicating events which need to be saved to some storage.
- * You can create several buffers of the same type, e.g. one buffer per shard, or per event type.
- * It accumulates them until buffer is less then bufferSize (num of records) and then flushes records to storage.
+ * This class provides buffering for frequent events which need to be saved to some storage.
+ * You can create several buffers, e.g. one buffer per shard, or per event type.
+ * Every buffer is a preallocated multi-producer single-consumer ring of primitive long events,
+ * producers never take a lock. When bufferSize events are buffered the buffer is flushed in a separate thread,
+ * the ring itself has room for the next power of two above bufferSize.
  * Also, in separate thread buffers are flushed periodically, every flushInterval (in ms).
- * If events have the same hashCode, newer events overwrite older one (in buffer), if they hasn't been flushed yet.
- *
- * @param <T> type of the event objects to buffer
+ * When the buffer is full, the event is either dropped and counted or the producer waits for a flush,
+ * depending on {@link OverflowPolicy}.
  */
-public class BatchUpdater<T> {
+public class BatchUpdater {
 
 	private static final Logger logger = LoggerFactory.getLogger("BatchUpdater");
 
@@ -26,25 +31,110 @@ public class BatchUpdater<T> {
 
 	private static List<BatchUpdater> instances = new ArrayList<BatchUpdater>();
 
-	private Map<Integer, Set<T>> eventBuffers;
-	private Map<Integer, FlushEvent<T>> events;
+	/**
+	 * What to do when a producer finds the buffer full
+	 */
+	public enum OverflowPolicy {
+		/** drop the event and count it, see {@link #getDropped()} */
+		drop,
+		/** wait until the buffer is flushed */
+		block
+	}
+
+	private Map<Integer, Ring> eventBuffers;
+	private Map<Integer, FlushEvent> events;
 	private Map<Integer, ExecutorService> executors;
 	private Timer flushTimer;
 	private int bufferSize = 0;
+	private OverflowPolicy overflowPolicy;
 	private String name;
+	private final AtomicLong dropped = new AtomicLong();
 
 	/**
-	 * Create new batch event updater
+	 * Bounded ring of long events. Every slot has a sequence number telling whose turn is it:
+	 * it equals to the producer position when the slot is free, and to the position + 1 when it is filled.
+	 */
+	private static final class Ring {
+		private final long[] values;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		private final AtomicBoolean flushScheduled = new AtomicBoolean();
+		private volatile long head;
+
+		private Ring(int capacity) {
+			values = new long[capacity];
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				sequences.set(i, i);
+			}
+			mask = capacity - 1;
+		}
+
+		private boolean offer(long value) {
+			while (true) {
+				long position = tail.get();
+				int idx = (int) position & mask;
+				long sequence = sequences.get(idx);
+				if (sequence == position) {
+					if (tail.compareAndSet(position, position + 1)) {
+						values[idx] = value;
+						sequences.lazySet(idx, position + 1);
+						return true;
+					}
+				} else if (sequence < position) {
+					return false;
+				}
+			}
+		}
+
+		private int size() {
+			return (int) (tail.get() - head);
+		}
+
+		/**
+		 * Pass all filled slots to the callback. Must be called by one consumer at a time.
+		 */
+		private int drain(FlushEvent callback) {
+			long position = head;
+			int count = 0;
+			while (true) {
+				int idx = (int) position & mask;
+				if (sequences.get(idx) != position + 1) {
+					break;
+				}
+				callback.onEvent(values[idx]);
+				sequences.lazySet(idx, position + values.length);
+				position++;
+				count++;
+			}
+			head = position;
+			return count;
+		}
+	}
+
+	/**
+	 * Create new batch event updater, overflowing events are dropped
 	 * @param name identifier of updater
-	 * @param bufferSize maximum size of buffer (when reached buffer is flushed)
-	 * @param flushInterval interval to sue for periodical buffer flushing
+	 * @param bufferSize count of events buffered before flush
 	 */
 	public BatchUpdater(String name, int bufferSize) {
+		this(name, bufferSize, OverflowPolicy.drop);
+	}
+
+	/**
+	 * Create new batch event updater
+	 * @param name identifier of updater
+	 * @param bufferSize count of events buffered before flush
+	 * @param overflowPolicy what to do when buffer is full
+	 */
+	public BatchUpdater(String name, int bufferSize, OverflowPolicy overflowPolicy) {
 		this.name = name;
 		this.bufferSize = bufferSize;
+		this.overflowPolicy = overflowPolicy;
 
-		eventBuffers = new ConcurrentHashMap<Integer, Set<T>>();
-		events = new ConcurrentHashMap<Integer, FlushEvent<T>>();
+		eventBuffers = new ConcurrentHashMap<Integer, Ring>();
+		events = new ConcurrentHashMap<Integer, FlushEvent>();
 		executors = new ConcurrentHashMap<Integer, ExecutorService>();
 
 		// register new instance
@@ -90,6 +180,9 @@ public class BatchUpdater<T> {
 			for (int id : executors.keySet()) {
 				executors.get(id).shutdown();
 			}
+			if (dropped.get() > 0) {
+				logger.warn("{}: {} events dropped on overflow", name, dropped.get());
+			}
 		}
 	}
 
@@ -98,37 +191,27 @@ public class BatchUpdater<T> {
 	 * @param bufferId id of buffer to use
 	 * @param event callback for flush object instance to execute actual buffer flush
 	 */
-	public void addEvent(int bufferId, FlushEvent<T> event) {
-		eventBuffers.put(bufferId, new HashSet<T>(bufferSize));
+	public void addEvent(int bufferId, FlushEvent event) {
+		eventBuffers.put(bufferId, new Ring(Integer.highestOneBit(Math.max(bufferSize, 1)) << 1));
 		events.put(bufferId, event);
 		executors.put(bufferId, Executors.newSingleThreadExecutor(new NamedThreadFactory("batchUpdater-" + name)));
 	}
 
 	/**
-	 * Get all buffered records from specified buffer
-	 * @param bufferId id of buffer to use
-	 * @return list of event objects in specified buffer
-	 */
-	public List<T> getAll(final int bufferId) {
-		final Set<T> eventBuffer = eventBuffers.get(bufferId);
-		List<T> list;
-		synchronized (eventBuffer) {
-			list = new ArrayList<T>(eventBuffer);
-		}
-		return list;
-	}
-
-	/**
-	 * Add new object to selected buffer
+	 * Add new event to selected buffer
 	 * @param bufferId id of buffer to use
-	 * @param o object to add into selected buffer
+	 * @param o event to add into selected buffer
 	 */
-	public void add(final int bufferId, T o) {
-		final Set<T> eventBuffer = eventBuffers.get(bufferId);
+	public void add(final int bufferId, long o) {
+		final Ring eventBuffer = eventBuffers.get(bufferId);
 
-		// overwrite existing event with new one
-		synchronized (eventBuffer) {
-			eventBuffer.add(o);
+		while (!eventBuffer.offer(o)) {
+			if (overflowPolicy == OverflowPolicy.drop) {
+				dropped.incrementAndGet();
+				break;
+			}
+			scheduleFlush(bufferId, eventBuffer);
+			LockSupport.parkNanos(100000);
 		}
 
 		// queueing disabled
@@ -136,28 +219,32 @@ public class BatchUpdater<T> {
 			flush(bufferId);
 		}
 		else {
-			// queue is full
+			// enough events are buffered
 			if (eventBuffer.size() >= bufferSize) {
-				executors.get(bufferId).execute(new ExecutorTask(bufferId));
+				scheduleFlush(bufferId, eventBuffer);
 			}
 		}
 	}
 
+	/**
+	 * @return count of events dropped on overflow
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
 	/**
 	 * Force flushing of selected buffer
 	 * @param bufferId id of buffer to use
 	 */
 	public void flush(int bufferId) {
-		List<T> buffer;
-		Set<T> eventBuffer = eventBuffers.get(bufferId);
+		Ring eventBuffer = eventBuffers.get(bufferId);
+		FlushEvent event = events.get(bufferId);
 		synchronized (eventBuffer) {
-			buffer = new ArrayList<T>(eventBuffer);
-			eventBuffer.clear();
+			eventBuffer.flushScheduled.set(false);
+			eventBuffer.drain(event);
+			event.flush();
 		}
-
-//		if (! buffer.isEmpty()) {
-			events.get(bufferId).flush(buffer);
-//		}
 	}
 
 	/**
@@ -180,19 +267,30 @@ public class BatchUpdater<T> {
 		}
 	}
 
+	private void scheduleFlush(int bufferId, Ring eventBuffer) {
+		if (eventBuffer.flushScheduled.compareAndSet(false, true)) {
+			executors.get(bufferId).execute(new ExecutorTask(bufferId));
+		}
+	}
+
 	/**
 	 * This interface represents callback for flushing batched events.
-	 * It should provide the only flush method for doing event-specific batch processing,
-	 * like writing new records into database or sending buffered messages.
-	 * @param <T> type of event objects to be flushed
+	 * Buffered events are passed one by one to onEvent, then flush is called to do event-specific batch
+	 * processing, like writing new records into database or sending buffered messages.
+	 * Both methods are called by one thread at a time.
 	 */
-	public interface FlushEvent<T> {
+	public interface FlushEvent {
+
+		/**
+		 * Consume next buffered event
+		 * @param event value of the event
+		 */
+		void onEvent(long event);
 
 		/**
-		 * Event-specific flush methods
-		 * @param buffer values to flush
+		 * Event-specific flush method, called after all buffered events are consumed
 		 */
-		void flush(Collection<T> buffer);
+		void flush();
 	}
 
 	private class ExecutorTask implements Runnable {
@@ -209,4 +307,4 @@ public class BatchUpdater<T> {
 		}
 	}
 
-}
\ No newline at end of file
+}
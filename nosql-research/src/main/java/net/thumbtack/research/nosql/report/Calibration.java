@@ -0,0 +1,147 @@
+package net.thumbtack.research.nosql.report;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Harness overhead measured by a calibration run against the noop client.
+ * Mean and median latencies in nanoseconds are stored in report.calibration file per count of threads,
+ * so calibration should be run once for every sc.threads used by real runs.
+ */
+public final class Calibration {
+    private static final Logger log = LoggerFactory.getLogger(Calibration.class);
+
+    private static final String CALIBRATION_PROPERTY = "report.calibration";
+    private static final String DEFAULT_CALIBRATION = "calibration.properties";
+    private static final String THRESHOLD_PROPERTY = "report.calibration.threshold";
+    private static final double DEFAULT_THRESHOLD = 0.1;
+
+    private static final int[] STOPWATCHES = {
+            Reporter.STOPWATCH_ACTION,
+            Reporter.STOPWATCH_READ,
+            Reporter.STOPWATCH_WRITE
+    };
+
+    private final int threads;
+    private final double threshold;
+    private final double[] overhead = new double[STOPWATCHES.length];
+    private final double[] typicalOverhead = new double[STOPWATCHES.length];
+
+    private Calibration(int threads, double threshold) {
+        this.threads = threads;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Store mean latencies of the finished calibration run for its count of threads
+     */
+    public static void save(Configurator config) {
+        File file = new File(config.getString(CALIBRATION_PROPERTY, DEFAULT_CALIBRATION));
+        Properties properties = read(file);
+        int threads = config.getScThreads();
+        for (int stopwatch : STOPWATCHES) {
+            LatencyHistogram histogram = Reporter.getHistogram(stopwatch);
+            String prefix = threads + "." + Reporter.getName(stopwatch);
+            properties.setProperty(prefix + ".mean", String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+            properties.setProperty(prefix + ".p50", String.valueOf(histogram.getValueAtPercentile(50)));
+            log.info("Harness overhead of {} with {} threads: mean={}ns, p50={}ns", new Object[]{
+                    Reporter.getName(stopwatch), threads,
+                    properties.getProperty(prefix + ".mean"), properties.getProperty(prefix + ".p50")
+            });
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Harness overhead in ns by threads count");
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @return calibration for sc.threads of the run or null if it was not calibrated
+     */
+    public static Calibration load(Configurator config) {
+        File file = new File(config.getString(CALIBRATION_PROPERTY, DEFAULT_CALIBRATION));
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = read(file);
+        Calibration calibration = new Calibration(
+                config.getScThreads(),
+                config.getDouble(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD)
+        );
+        for (int i = 0; i < STOPWATCHES.length; i++) {
+            String prefix = calibration.threads + "." + Reporter.getName(STOPWATCHES[i]);
+            String mean = properties.getProperty(prefix + ".mean");
+            String median = properties.getProperty(prefix + ".p50");
+            if (mean == null || median == null) {
+                log.warn("Harness overhead is not calibrated for {} threads", calibration.threads);
+                return null;
+            }
+            calibration.overhead[i] = Double.parseDouble(mean);
+            calibration.typicalOverhead[i] = Double.parseDouble(median);
+        }
+        return calibration;
+    }
+
+    /**
+     * @return mean overhead in ms or 0 if stopwatch is not calibrated
+     */
+    public double getOverhead(int stopwatch) {
+        int idx = indexOf(stopwatch);
+        return idx < 0 ? 0 : overhead[idx] / 1000000;
+    }
+
+    /**
+     * @return median overhead in ms or 0 if stopwatch is not calibrated, it is subtracted from percentiles
+     */
+    public double getTypicalOverhead(int stopwatch) {
+        int idx = indexOf(stopwatch);
+        return idx < 0 ? 0 : typicalOverhead[idx] / 1000000;
+    }
+
+    /**
+     * @return true if overhead is greater than threshold fraction of the mean latency
+     */
+    public boolean isSignificant(int stopwatch) {
+        double mean = Reporter.getMean(stopwatch);
+        return mean > 0 && getOverhead(stopwatch) / mean > threshold;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private static int indexOf(int stopwatch) {
+        for (int i = 0; i < STOPWATCHES.length; i++) {
+            if (STOPWATCHES[i] == stopwatch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Properties read(File file) {
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            return properties;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+        return properties;
+    }
+}
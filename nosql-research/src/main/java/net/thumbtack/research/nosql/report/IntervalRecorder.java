@@ -0,0 +1,91 @@
+package net.thumbtack.research.nosql.report;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records values of the current interval. Every thread records into its own active histogram,
+ * {@link #getIntervalHistogram()} swaps active histograms of all threads with spare ones,
+ * so no value is lost or counted twice between intervals.
+ * In striped mode threads share a fixed count of slots and record with {@link LatencyHistogram#recordConcurrent(long)}.
+ */
+public final class IntervalRecorder {
+
+    private static final class Slot {
+        private volatile LatencyHistogram active = new LatencyHistogram();
+        private LatencyHistogram inactive = new LatencyHistogram();
+    }
+
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Slot> localSlot = new ThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            Slot slot = new Slot();
+            slots.add(slot);
+            return slot;
+        }
+    };
+
+    private volatile Slot[] stripes;
+
+    /**
+     * Switch threads between own slots and slots shared by stripe. Must be called before recording starts.
+     */
+    public void setStriped(boolean striped) {
+        if (!striped) {
+            stripes = null;
+            return;
+        }
+        Slot[] shared = new Slot[Stripes.COUNT];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = new Slot();
+            slots.add(shared[i]);
+        }
+        stripes = shared;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Record the same value count times at once
+     */
+    public void record(long value, long count) {
+        Slot[] shared = stripes;
+        long epoch = phaser.writerCriticalSectionEnter();
+        try {
+            if (shared != null) {
+                shared[Stripes.current()].active.recordConcurrent(value, count);
+            } else {
+                localSlot.get().active.record(value, count);
+            }
+        } finally {
+            phaser.writerCriticalSectionExit(epoch);
+        }
+    }
+
+    /**
+     * @return values of all threads recorded since the previous call
+     */
+    public LatencyHistogram getIntervalHistogram() {
+        LatencyHistogram result = new LatencyHistogram();
+        phaser.readerLock();
+        try {
+            for (Slot slot : slots) {
+                LatencyHistogram spare = slot.inactive;
+                spare.reset();
+                slot.inactive = slot.active;
+                slot.active = spare;
+            }
+            phaser.flipPhase();
+            for (Slot slot : slots) {
+                result.add(slot.inactive);
+            }
+        } finally {
+            phaser.readerUnlock();
+        }
+        return result;
+    }
+}
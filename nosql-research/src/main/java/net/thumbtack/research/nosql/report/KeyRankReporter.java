@@ -0,0 +1,145 @@
+package net.thumbtack.research.nosql.report;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read and write latency and count of anomalies (stale reads) by key rank, so behaviour of hot keys is seen.
+ * Ranks are grouped into power of two buckets: 0, 1, 2-3, 4-7 and so on. Only measured phase is recorded.
+ * Enabled by report.keyRanks property (true by default), used by scenarios choosing keys by
+ * {@link net.thumbtack.research.nosql.keys.KeyChooser}.
+ */
+public final class KeyRankReporter {
+    private static final Logger log = LoggerFactory.getLogger(KeyRankReporter.class);
+
+    private static final String KEY_RANKS_PROPERTY = "report.keyRanks";
+    private static final int BUCKETS = 65;
+    private static final double NANOS_IN_MILLI = 1000000.0;
+
+    /**
+     * Histograms of one thread, or of one stripe if {@link Reporter#isStriped()}
+     */
+    private static final class Recorder {
+        private final AtomicReferenceArray<LatencyHistogram> reads = new AtomicReferenceArray<>(BUCKETS);
+        private final AtomicReferenceArray<LatencyHistogram> writes = new AtomicReferenceArray<>(BUCKETS);
+        private final AtomicLongArray anomalies = new AtomicLongArray(BUCKETS);
+    }
+
+    private static volatile boolean enabled;
+    private static final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Recorder> localRecorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            return recorder;
+        }
+    };
+    private static Recorder[] stripes;
+
+    private KeyRankReporter() {}
+
+    public static synchronized void configure(Configurator config) {
+        enabled = Boolean.parseBoolean(config.getString(KEY_RANKS_PROPERTY, "true"));
+        if (enabled && Reporter.isStriped()) {
+            stripes = new Recorder[Stripes.COUNT];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Recorder();
+                recorders.add(stripes[i]);
+            }
+        }
+    }
+
+    public static void addRead(long rank, long latency) {
+        if (isRecorded()) {
+            if (stripes != null) {
+                getHistogram(stripes[Stripes.current()].reads, bucket(rank)).recordConcurrent(latency);
+            } else {
+                getHistogram(localRecorder.get().reads, bucket(rank)).record(latency);
+            }
+        }
+    }
+
+    public static void addWrite(long rank, long latency) {
+        if (isRecorded()) {
+            if (stripes != null) {
+                getHistogram(stripes[Stripes.current()].writes, bucket(rank)).recordConcurrent(latency);
+            } else {
+                getHistogram(localRecorder.get().writes, bucket(rank)).record(latency);
+            }
+        }
+    }
+
+    public static void addAnomaly(long rank) {
+        if (isRecorded()) {
+            Recorder recorder = stripes != null ? stripes[Stripes.current()] : localRecorder.get();
+            recorder.anomalies.incrementAndGet(bucket(rank));
+        }
+    }
+
+    /**
+     * Log statistics of every bucket with recorded operations
+     */
+    public static void print() {
+        if (!enabled) {
+            return;
+        }
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            LatencyHistogram reads = new LatencyHistogram();
+            LatencyHistogram writes = new LatencyHistogram();
+            long anomalies = 0;
+            for (Recorder recorder : recorders) {
+                if (recorder.reads.get(bucket) != null) {
+                    reads.add(recorder.reads.get(bucket));
+                }
+                if (recorder.writes.get(bucket) != null) {
+                    writes.add(recorder.writes.get(bucket));
+                }
+                anomalies += recorder.anomalies.get(bucket);
+            }
+            if (reads.getCount() == 0 && writes.getCount() == 0) {
+                continue;
+            }
+            long from = bucket == 0 ? 0 : 1L << (bucket - 1);
+            long to = bucket == 0 ? 0 : (1L << (bucket - 1)) * 2 - 1;
+            log.info("Key ranks {}-{}:\t reads={} (p50={}ms, p99={}ms), \twrites={} (p50={}ms, p99={}ms), "
+                    + "\tanomalies={} ({}% of reads)", new Object[]{
+                    from, to,
+                    reads.getCount(),
+                    reads.getValueAtPercentile(50) / NANOS_IN_MILLI,
+                    reads.getValueAtPercentile(99) / NANOS_IN_MILLI,
+                    writes.getCount(),
+                    writes.getValueAtPercentile(50) / NANOS_IN_MILLI,
+                    writes.getValueAtPercentile(99) / NANOS_IN_MILLI,
+                    anomalies,
+                    String.format("%.3f", reads.getCount() == 0 ? 0.0 : (double) anomalies / reads.getCount() * 100)
+            });
+        }
+    }
+
+    private static LatencyHistogram getHistogram(AtomicReferenceArray<LatencyHistogram> histograms, int bucket) {
+        LatencyHistogram histogram = histograms.get(bucket);
+        if (histogram == null) {
+            histograms.compareAndSet(bucket, null, new LatencyHistogram());
+            histogram = histograms.get(bucket);
+        }
+        return histogram;
+    }
+
+    private static boolean isRecorded() {
+        return enabled && Reporter.getPhase() == Reporter.PHASE_MEASURE;
+    }
+
+    /**
+     * @return 0 for rank 0, otherwise count of significant bits of the rank
+     */
+    private static int bucket(long rank) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(rank, 0));
+    }
+}
@@ -0,0 +1,187 @@
+package net.thumbtack.research.nosql.report;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear histogram of latencies in nanoseconds (HDR style).
+ * Values below {@link #SUB_BUCKET_COUNT} are recorded exactly, every next power of two range is split
+ * into {@link #SUB_BUCKET_HALF} linear buckets, so relative error of a percentile stays below 1/64.
+ * Bucket values above {@link #HIGHEST_TRACKABLE} are clamped, count, total, min and max are always exact.
+ * <p/>
+ * Recording is lock-free and allocation-free, {@link #record(long)} expects a single writer thread,
+ * {@link #recordConcurrent(long)} may be used by several writers sharing a histogram.
+ * Any thread may read or merge it concurrently.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_HALF_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    public static final long HIGHEST_TRACKABLE = (1L << MAX_EXPONENT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record value. Must be called from the owner thread only.
+     * @param value value in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Record the same value count times at once. Must be called from the owner thread only.
+     * @param value value in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        int idx = index(Math.min(value, HIGHEST_TRACKABLE));
+        counts.lazySet(idx, counts.get(idx) + count);
+        totalSum.lazySet(totalSum.get() + value * count);
+        if (value < minValue.get()) {
+            minValue.lazySet(value);
+        }
+        if (value > maxValue.get()) {
+            maxValue.lazySet(value);
+        }
+        totalCount.lazySet(totalCount.get() + count);
+    }
+
+    /**
+     * Record value, may be called by several threads at once.
+     * @param value value in nanoseconds, negative values are recorded as zero
+     */
+    public void recordConcurrent(long value) {
+        recordConcurrent(value, 1);
+    }
+
+    /**
+     * Record the same value count times at once, may be called by several threads at once.
+     * @param value value in nanoseconds, negative values are recorded as zero
+     */
+    public void recordConcurrent(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        counts.addAndGet(index(Math.min(value, HIGHEST_TRACKABLE)), count);
+        totalSum.addAndGet(value * count);
+        long min;
+        while (value < (min = minValue.get()) && !minValue.compareAndSet(min, value)) {
+            // retry
+        }
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // retry
+        }
+        totalCount.addAndGet(count);
+    }
+
+    /**
+     * Add all values of other histogram to this one. Must be called from the owner thread only.
+     * @param other histogram to merge
+     */
+    public void add(LatencyHistogram other) {
+        long count = other.totalCount.get();
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.lazySet(i, counts.get(i) + c);
+            }
+        }
+        totalSum.lazySet(totalSum.get() + other.totalSum.get());
+        minValue.lazySet(Math.min(minValue.get(), other.minValue.get()));
+        maxValue.lazySet(Math.max(maxValue.get(), other.maxValue.get()));
+        totalCount.lazySet(totalCount.get() + count);
+    }
+
+    /**
+     * Clear histogram. Values recorded by the owner thread at the same time may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        totalSum.lazySet(0);
+        minValue.lazySet(Long.MAX_VALUE);
+        maxValue.lazySet(0);
+        totalCount.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getTotal() {
+        return totalSum.get();
+    }
+
+    public long getMin() {
+        return getCount() == 0 ? 0 : minValue.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getTotal() / count;
+    }
+
+    /**
+     * @param percentile percentile in range [0, 100]
+     * @return highest value equivalent to the value at given percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
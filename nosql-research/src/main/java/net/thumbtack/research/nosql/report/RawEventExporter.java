@@ -0,0 +1,82 @@
+package net.thumbtack.research.nosql.report;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Converts binary file of {@link RawEventLog} to TSV, record by record.
+ * Time is printed in milliseconds since the start of the log, latency in milliseconds.
+ * Usage: RawEventExporter raw-log-file [tsv-file], TSV is printed to stdout if file is not given.
+ */
+public final class RawEventExporter {
+
+    private static final double NANOS_IN_MILLI = 1000000.0;
+
+    private RawEventExporter() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: RawEventExporter <raw log file> [tsv file]");
+            System.exit(1);
+        }
+        Writer out = args.length > 1
+                ? new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8")
+                : new OutputStreamWriter(System.out, "UTF-8");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 1 << 16));
+             PrintWriter tsv = new PrintWriter(out)) {
+            export(in, tsv);
+        }
+    }
+
+    /**
+     * @return count of exported records
+     */
+    public static long export(DataInputStream in, PrintWriter tsv) throws IOException {
+        if (in.readInt() != RawEventLog.MAGIC) {
+            throw new IOException("Not a raw event log");
+        }
+        int version = in.readInt();
+        if (version != RawEventLog.VERSION) {
+            throw new IOException("Unsupported raw event log version " + version);
+        }
+        long wallStart = in.readLong();
+        long nanoStart = in.readLong();
+        tsv.println("# started at " + wallStart);
+        tsv.println("Time\tOp\tHost\tKey\tLatency\tValue");
+        long count = 0;
+        while (true) {
+            int op;
+            try {
+                op = in.readUnsignedByte();
+            } catch (EOFException e) {
+                break;
+            }
+            byte host = in.readByte();
+            in.readShort();
+            long key = in.readLong();
+            long time = in.readLong();
+            long latency = in.readLong();
+            long value = in.readLong();
+            tsv.print(String.format("%.3f", (time - nanoStart) / NANOS_IN_MILLI));
+            tsv.print('\t');
+            tsv.print(op < RawEventLog.OP_NAMES.length ? RawEventLog.OP_NAMES[op] : String.valueOf(op));
+            tsv.print('\t');
+            tsv.print(host);
+            tsv.print('\t');
+            tsv.print(Long.toHexString(key));
+            tsv.print('\t');
+            tsv.print(String.format("%.3f", latency / NANOS_IN_MILLI));
+            tsv.print('\t');
+            tsv.println(value);
+            count++;
+        }
+        return count;
+    }
+}
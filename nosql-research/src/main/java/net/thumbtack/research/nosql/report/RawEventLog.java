@@ -0,0 +1,254 @@
+package net.thumbtack.research.nosql.report;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only binary log of every operation, enabled by report.rawLog property (path of the file).
+ * <p/>
+ * Every thread appends fixed-size records into its own ring buffer without locks and allocations,
+ * a background writer drains the rings into the memory-mapped file. If a ring is full the record is dropped
+ * and counted, so logging never blocks the scenario. Use {@link RawEventExporter} to convert the file to TSV.
+ * In striped mode (see {@link #setStriped(boolean)}) threads share a fixed count of rings, appending under
+ * the ring monitor, so thousands of virtual threads do not allocate a ring each.
+ * <p/>
+ * File layout: header of {@link #HEADER_SIZE} bytes (magic, version, wall clock and nanoTime of the start)
+ * followed by records of {@link #RECORD_SIZE} bytes: op type (1), host index (1), reserved (2),
+ * key id (8), nanoTime of the op start (8), latency in ns (8), value (8).
+ */
+public final class RawEventLog {
+    private static final Logger log = LoggerFactory.getLogger(RawEventLog.class);
+
+    private static final String RAW_LOG_PROPERTY = "report.rawLog";
+    private static final String RING_SIZE_PROPERTY = "report.rawLog.ringSize";
+    private static final int DEFAULT_RING_SIZE = 16384;
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+    private static final long DRAIN_INTERVAL = 10;
+
+    static final int MAGIC = 0x4e524157;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 36;
+
+    public static final byte OP_WRITE = 0;
+    public static final byte OP_READ = 1;
+    /** Read returned value older than expected one */
+    public static final byte OP_STALE_READ = 2;
+
+    static final String[] OP_NAMES = {"write", "read", "staleRead"};
+
+    private static final int RECORD_LONGS = 5;
+
+    /**
+     * Single-producer single-consumer ring of records of one thread
+     */
+    private static final class Ring {
+        private final long[] records;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        private Ring(int size) {
+            this.records = new long[size * RECORD_LONGS];
+            this.mask = size - 1;
+        }
+
+        private boolean offer(byte op, int host, long key, long time, long latency, long value) {
+            long h = head.get();
+            if (h - tail.get() > mask) {
+                return false;
+            }
+            int offset = (int) (h & mask) * RECORD_LONGS;
+            records[offset] = (op & 0xff) << 8 | (host & 0xff);
+            records[offset + 1] = key;
+            records[offset + 2] = time;
+            records[offset + 3] = latency;
+            records[offset + 4] = value;
+            head.lazySet(h + 1);
+            return true;
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static int ringSize;
+    private static final Queue<Ring> rings = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Ring> localRing = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring ring = new Ring(ringSize);
+            rings.add(ring);
+            return ring;
+        }
+    };
+    private static volatile Ring[] stripes;
+    private static boolean striped;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static RandomAccessFile file;
+    private static FileChannel channel;
+    private static MappedByteBuffer region;
+    private static long regionStart;
+    private static long written;
+    private static ScheduledExecutorService writer;
+
+    private RawEventLog() {}
+
+    /**
+     * Open the log file if report.rawLog is set
+     */
+    public static synchronized void configure(Configurator config) {
+        String path = config.getString(RAW_LOG_PROPERTY, null);
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        ringSize = Integer.highestOneBit(Math.max(config.getInt(RING_SIZE_PROPERTY, DEFAULT_RING_SIZE), 2));
+        try {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            regionStart = 0;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+            region.putInt(MAGIC);
+            region.putInt(VERSION);
+            region.putLong(System.currentTimeMillis());
+            region.putLong(System.nanoTime());
+            written = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+        if (striped) {
+            Ring[] shared = new Ring[Stripes.COUNT];
+            for (int i = 0; i < shared.length; i++) {
+                shared[i] = new Ring(ringSize);
+                rings.add(shared[i]);
+            }
+            stripes = shared;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rawLog"));
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, DRAIN_INTERVAL, DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+        enabled = true;
+        log.info("Raw events are logged to {}", path);
+    }
+
+    /**
+     * Make threads share rings by stripe, must be called before {@link #configure(Configurator)}
+     */
+    public static synchronized void setStriped(boolean striped) {
+        RawEventLog.striped = striped;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Append record of the current thread. Does nothing if the log is disabled.
+     * @param op one of OP_* constants
+     * @param host index of host in db.hosts, -1 if unknown
+     * @param key key id, index of the key in {@link net.thumbtack.research.nosql.keys.KeySpace}
+     * @param time nanoTime of the op start
+     * @param latency op latency in nanoseconds
+     * @param value written or read value
+     */
+    public static void add(byte op, int host, long key, long time, long latency, long value) {
+        if (!enabled) {
+            return;
+        }
+        boolean added;
+        Ring[] shared = stripes;
+        if (shared != null) {
+            Ring ring = shared[Stripes.current()];
+            synchronized (ring) {
+                added = ring.offer(op, host, key, time, latency, value);
+            }
+        } else {
+            added = localRing.get().offer(op, host, key, time, latency, value);
+        }
+        if (!added) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write all buffered records and close the file
+     */
+    public static synchronized void close() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+        try {
+            region.force();
+            region = null;
+            channel.truncate(HEADER_SIZE + written * RECORD_SIZE);
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+        log.info("Raw events: {} written, {} dropped", written, dropped.get());
+    }
+
+    private static synchronized void drain() {
+        if (region == null) {
+            return;
+        }
+        try {
+            for (Ring ring : rings) {
+                long t = ring.tail.get();
+                long h = ring.head.get();
+                for (; t < h; t++) {
+                    if (region.remaining() < RECORD_SIZE) {
+                        remap();
+                    }
+                    int offset = (int) (t & ring.mask) * RECORD_LONGS;
+                    long opHost = ring.records[offset];
+                    region.put((byte) (opHost >>> 8));
+                    region.put((byte) opHost);
+                    region.putShort((short) 0);
+                    region.putLong(ring.records[offset + 1]);
+                    region.putLong(ring.records[offset + 2]);
+                    region.putLong(ring.records[offset + 3]);
+                    region.putLong(ring.records[offset + 4]);
+                    written++;
+                }
+                ring.tail.lazySet(t);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+    }
+
+    private static void remap() throws IOException {
+        regionStart += region.position();
+        region.force();
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+    }
+}
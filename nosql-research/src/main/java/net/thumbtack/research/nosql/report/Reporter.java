@@ -1,60 +1,267 @@
 package net.thumbtack.research.nosql.report;
 
-import org.javasimon.SimonManager;
-import org.javasimon.Split;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Used to track test events and timings
+ * Used to track test events and timings.
+ * Every thread records into its own set of {@link LatencyHistogram}s, they are merged at report time only.
+ * With a great many short-living or virtual threads, {@link #setStriped(boolean)} makes threads share
+ * a fixed count of histogram sets instead.
+ * Time series stopwatches are recorded by {@link IntervalRecorder}s and read by {@link #getIntervalHistogram(int)}.
+ * Other stopwatches are recorded separately for every phase of the run, statistics getters use the current phase.
  */
 public class Reporter {
 
 	private static final long NANOS_IN_MILLI = 1000000;
 
-	public static final String STOPWATCH_SCENARIO = "scenario";
-	public static final String STOPWATCH_ACTION = "action";
-	public static final String STOPWATCH_READ = "read";
-	public static final String STOPWATCH_READ_TIME_SERIES = "read_time_series";
-	public static final String STOPWATCH_WRITE = "write";
-	public static final String STOPWATCH_WRITE_TIME_SERIES = "write_time_series";
-	public static final String STOPWATCH_FAILURE = "failure";
-	public static final String STOPWATCH_VALUE_FAILURE = "valueFailure";
+	public static final int STOPWATCH_SCENARIO = 0;
+	public static final int STOPWATCH_ACTION = 1;
+	public static final int STOPWATCH_READ = 2;
+	public static final int STOPWATCH_READ_TIME_SERIES = 3;
+	public static final int STOPWATCH_WRITE = 4;
+	public static final int STOPWATCH_WRITE_TIME_SERIES = 5;
+	public static final int STOPWATCH_FAILURE = 6;
+	public static final int STOPWATCH_VALUE_FAILURE = 7;
+	public static final int STOPWATCH_SCHEDULE_LAG = 8;
+	public static final int STOPWATCH_BATCH_WRITE = 9;
+	public static final int STOPWATCH_BATCH_WRITE_KEY = 10;
+	public static final int STOPWATCH_BATCH_READ = 11;
+	public static final int STOPWATCH_BATCH_READ_KEY = 12;
+	public static final int STOPWATCH_POOL_WAIT = 13;
+	public static final int STOPWATCH_PREPARE = 14;
+	public static final int STOPWATCH_CONNECT = 15;
+	public static final int STOPWATCH_STARTUP = 16;
+	/** Bytes allocated by an action, not a time */
+	public static final int STOPWATCH_ALLOCATION = 17;
+	/** Batch write of the preload phase */
+	public static final int STOPWATCH_PRELOAD = 18;
+	/** Wake-up of a group member after the last one arrives at the barrier */
+	public static final int STOPWATCH_HANDOFF = 19;
+	/** Time between writes of the stale value read and of the value it must have been, not a latency */
+	public static final int STOPWATCH_STALENESS = 20;
 
+	public static final int PHASE_WARMUP = 0;
+	public static final int PHASE_MEASURE = 1;
+	private static final int PHASES_COUNT = 2;
 
-	public static Split startEvent() {
-		Split result = new Split();
+	private static final String[] STOPWATCH_NAMES = {
+			"scenario",
+			"action",
+			"read",
+			"read_time_series",
+			"write",
+			"write_time_series",
+			"failure",
+			"valueFailure",
+			"scheduleLag",
+			"batchWrite",
+			"batchWriteKey",
+			"batchRead",
+			"batchReadKey",
+			"poolWait",
+			"prepare",
+			"connect",
+			"startup",
+			"allocation",
+			"preload",
+			"handoff",
+			"staleness"
+	};
+
+	private static volatile int phase = PHASE_MEASURE;
+
+	private static final IntervalRecorder[] intervalRecorders = new IntervalRecorder[STOPWATCH_NAMES.length];
+
+	static {
+		intervalRecorders[STOPWATCH_READ_TIME_SERIES] = new IntervalRecorder();
+		intervalRecorders[STOPWATCH_WRITE_TIME_SERIES] = new IntervalRecorder();
+	}
+
+	private static final Queue<AtomicReferenceArray<LatencyHistogram>> recorders = new ConcurrentLinkedQueue<>();
+
+	private static volatile AtomicReferenceArray<LatencyHistogram>[] stripes;
+
+	private static final ThreadLocal<AtomicReferenceArray<LatencyHistogram>> localRecorders =
+			new ThreadLocal<AtomicReferenceArray<LatencyHistogram>>() {
+				@Override
+				protected AtomicReferenceArray<LatencyHistogram> initialValue() {
+					AtomicReferenceArray<LatencyHistogram> histograms =
+							new AtomicReferenceArray<>(STOPWATCH_NAMES.length * PHASES_COUNT);
+					recorders.add(histograms);
+					return histograms;
+				}
+			};
+
+	/**
+	 * Switch threads between own histograms and histograms shared by stripe, values recorded before are kept.
+	 * Must be called before scenarios are started.
+	 */
+	public static void setStriped(final boolean striped) {
+		if (!striped) {
+			stripes = null;
+			return;
+		}
+		AtomicReferenceArray<LatencyHistogram>[] shared = newStripes(Stripes.COUNT);
+		for (int i = 0; i < shared.length; i++) {
+			shared[i] = new AtomicReferenceArray<>(STOPWATCH_NAMES.length * PHASES_COUNT);
+			recorders.add(shared[i]);
+		}
+		stripes = shared;
+		for (IntervalRecorder recorder : intervalRecorders) {
+			if (recorder != null) {
+				recorder.setStriped(true);
+			}
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static AtomicReferenceArray<LatencyHistogram>[] newStripes(int count) {
+		return new AtomicReferenceArray[count];
+	}
+
+	public static boolean isStriped() {
+		return stripes != null;
+	}
+
+	public static long startEvent() {
+		return System.nanoTime();
+	}
+
+	public static void addEvent(final int stopwatch) {
+		addValue(stopwatch, 0);
+	}
+
+	public static void addEvent(final int stopwatch, final long start) {
+		addValue(stopwatch, System.nanoTime() - start);
+	}
+
+	public static void addEvent(final int stopwatch, final long start, final long end) {
+		addValue(stopwatch, end - start);
+	}
+
+	/**
+	 * Record a value which is not a time, e.g. count of bytes
+	 */
+	public static void addValue(final int stopwatch, final long value) {
+		addValue(stopwatch, value, 1);
+	}
+
+	/**
+	 * Record the same value count times at once, e.g. latency of a batch amortized over its records
+	 */
+	public static void addValue(final int stopwatch, final long value, final long count) {
+		IntervalRecorder interval = intervalRecorders[stopwatch];
+		if (interval != null) {
+			interval.record(value, count);
+		} else if (stripes != null) {
+			getStripeHistogram(stopwatch).recordConcurrent(value, count);
+		} else {
+			getLocalHistogram(stopwatch).record(value, count);
+		}
+	}
+
+	/**
+	 * @param stopwatch time series stopwatch id
+	 * @return values recorded since the previous call for the same stopwatch
+	 */
+	public static LatencyHistogram getIntervalHistogram(final int stopwatch) {
+		return intervalRecorders[stopwatch].getIntervalHistogram();
+	}
+
+	/**
+	 * Switch all threads to record into histograms of another phase. Histograms of the previous phase are kept.
+	 */
+	public static void setPhase(final int phase) {
+		Reporter.phase = phase;
+	}
+
+	public static int getPhase() {
+		return phase;
+	}
+
+	public static String getName(final int stopwatch) {
+		return STOPWATCH_NAMES[stopwatch];
+	}
+
+	/**
+	 * @param stopwatch stopwatch id
+	 * @return snapshot of all threads histograms of the current phase merged together
+	 */
+	public static LatencyHistogram getHistogram(final int stopwatch) {
+		return getHistogram(phase, stopwatch);
+	}
+
+	/**
+	 * @param phase phase id
+	 * @param stopwatch stopwatch id
+	 * @return snapshot of all threads histograms of the phase merged together
+	 */
+	public static LatencyHistogram getHistogram(final int phase, final int stopwatch) {
+		LatencyHistogram result = new LatencyHistogram();
+		for (AtomicReferenceArray<LatencyHistogram> histograms : recorders) {
+			LatencyHistogram histogram = histograms.get(phase * STOPWATCH_NAMES.length + stopwatch);
+			if (histogram != null) {
+				result.add(histogram);
+			}
+		}
 		return result;
 	}
 
-	public static void addEvent(final String stopwatch) {
-		SimonManager.getStopwatch(stopwatch).addSplit(new Split().stop());
+	public static long getCount(final int stopwatch) {
+		return getHistogram(stopwatch).getCount();
+	}
+
+	public static void reset(final int stopwatch) {
+		for (AtomicReferenceArray<LatencyHistogram> histograms : recorders) {
+			LatencyHistogram histogram = histograms.get(phase * STOPWATCH_NAMES.length + stopwatch);
+			if (histogram != null) {
+				histogram.reset();
+			}
+		}
 	}
 
-	public static void addEvent(final String stopwatch, final Split event) {
-		SimonManager.getStopwatch(stopwatch).addSplit(event);
+	public static double getTotal(final int stopwatch) {
+		return (double)getHistogram(stopwatch).getTotal() / NANOS_IN_MILLI;
 	}
 
-	public static long getCount(final String stopwatch) {
-		return SimonManager.getStopwatch(stopwatch).getCounter();
+	public static double getMin(final int stopwatch) {
+		return (double)getHistogram(stopwatch).getMin() / NANOS_IN_MILLI;
 	}
 
-    public static void reset(final String stopwatch) {
-        SimonManager.getStopwatch(stopwatch).reset();
-    }
+	public static double getMean(final int stopwatch) {
+		return getHistogram(stopwatch).getMean() / NANOS_IN_MILLI;
+	}
 
-	public static double getTotal(final String stopwatch) {
-		return (double)SimonManager.getStopwatch(stopwatch).getTotal() / NANOS_IN_MILLI;
+	public static double getMax(final int stopwatch) {
+		return (double)getHistogram(stopwatch).getMax() / NANOS_IN_MILLI;
 	}
 
-	public static double getMin(final String stopwatch) {
-		return (double)SimonManager.getStopwatch(stopwatch).getMin() / NANOS_IN_MILLI;
+	public static double getPercentile(final int stopwatch, final double percentile) {
+		return (double)getHistogram(stopwatch).getValueAtPercentile(percentile) / NANOS_IN_MILLI;
 	}
 
-	public static double getMean(final String stopwatch) {
-		return (double)SimonManager.getStopwatch(stopwatch).getMean() / NANOS_IN_MILLI;
+	private static LatencyHistogram getLocalHistogram(final int stopwatch) {
+		AtomicReferenceArray<LatencyHistogram> histograms = localRecorders.get();
+		int idx = phase * STOPWATCH_NAMES.length + stopwatch;
+		LatencyHistogram histogram = histograms.get(idx);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.set(idx, histogram);
+		}
+		return histogram;
 	}
 
-	public static double getMax(final String stopwatch) {
-		return (double)SimonManager.getStopwatch(stopwatch).getMax() / NANOS_IN_MILLI;
+	private static LatencyHistogram getStripeHistogram(final int stopwatch) {
+		AtomicReferenceArray<LatencyHistogram> histograms = stripes[Stripes.current()];
+		int idx = phase * STOPWATCH_NAMES.length + stopwatch;
+		LatencyHistogram histogram = histograms.get(idx);
+		if (histogram == null) {
+			histograms.compareAndSet(idx, null, new LatencyHistogram());
+			histogram = histograms.get(idx);
+		}
+		return histogram;
 	}
 
 }
@@ -0,0 +1,22 @@
+package net.thumbtack.research.nosql.report;
+
+/**
+ * Maps threads to a fixed count of stripes for recorders shared by several threads
+ */
+final class Stripes {
+
+    /** Power of two, four stripes per processor */
+    static final int COUNT = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 4 - 1) << 1;
+
+    private Stripes() {}
+
+    /**
+     * @return stripe of the current thread
+     */
+    @SuppressWarnings("deprecation")
+    static int current() {
+        long id = Thread.currentThread().getId();
+        long hash = id * 0x9e3779b97f4a7c15L;
+        return (int) (hash >>> 32) & (COUNT - 1);
+    }
+}
@@ -0,0 +1,97 @@
+package net.thumbtack.research.nosql.report;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probability of consistent read against time elapsed since the write is acknowledged (t-visibility),
+ * by read consistency level and by slow or healthy replica probed. Only measured phase is recorded.
+ * <p/>
+ * Probes are counted by the offset they are scheduled at. They may start later than the offset if earlier
+ * probes of the write are slow, so the mean time they actually start at is reported too.
+ */
+public final class VisibilityReporter {
+    private static final Logger log = LoggerFactory.getLogger(VisibilityReporter.class);
+
+    private static final double NANOS_IN_MILLI = 1000000.0;
+    private static final int HEALTHY = 0;
+    private static final int SLOW = 1;
+
+    private static String[] levels;
+    private static long[] offsets;
+    private static AtomicLongArray probes;
+    private static AtomicLongArray consistent;
+    private static AtomicLongArray elapsed;
+
+    private VisibilityReporter() {}
+
+    /**
+     * Set levels and offsets of the run, the first call wins
+     * @param offsets probe offsets in nanoseconds, ascending
+     */
+    public static synchronized void configure(String[] levels, long[] offsets) {
+        if (VisibilityReporter.levels != null) {
+            return;
+        }
+        int size = levels.length * 2 * offsets.length;
+        probes = new AtomicLongArray(size);
+        consistent = new AtomicLongArray(size);
+        elapsed = new AtomicLongArray(size);
+        VisibilityReporter.offsets = offsets;
+        VisibilityReporter.levels = levels;
+    }
+
+    /**
+     * @param level index of consistency level
+     * @param offset index of probe offset
+     * @param time nanoseconds from the write acknowledgement to the probe start
+     */
+    public static void addProbe(int level, boolean slow, int offset, boolean isConsistent, long time) {
+        if (Reporter.getPhase() != Reporter.PHASE_MEASURE) {
+            return;
+        }
+        int idx = index(level, slow ? SLOW : HEALTHY, offset);
+        probes.incrementAndGet(idx);
+        elapsed.addAndGet(idx, time);
+        if (isConsistent) {
+            consistent.incrementAndGet(idx);
+        }
+    }
+
+    /**
+     * Log probability of consistent read at every offset for every level and kind of replica probed
+     */
+    public static synchronized void print() {
+        if (levels == null) {
+            return;
+        }
+        for (int level = 0; level < levels.length; level++) {
+            for (int replicas = HEALTHY; replicas <= SLOW; replicas++) {
+                if (probes.get(index(level, replicas, 0)) == 0) {
+                    continue;
+                }
+                StringBuilder line = new StringBuilder();
+                for (int offset = 0; offset < offsets.length; offset++) {
+                    int idx = index(level, replicas, offset);
+                    long count = probes.get(idx);
+                    line.append(String.format(", \t%.1fms: %.2f%% (at %.2fms)",
+                            offsets[offset] / NANOS_IN_MILLI,
+                            count == 0 ? 0.0 : (double) consistent.get(idx) / count * 100,
+                            count == 0 ? 0.0 : (double) elapsed.get(idx) / count / NANOS_IN_MILLI));
+                }
+                log.info("t-visibility {} {} replicas, {} probes per offset{}", new Object[]{
+                        levels[level],
+                        replicas == SLOW ? "slow" : "healthy",
+                        probes.get(index(level, replicas, 0)),
+                        line
+                });
+            }
+        }
+    }
+
+    private static int index(int level, int replicas, int offset) {
+        return (level * 2 + replicas) * offsets.length + offset;
+    }
+}
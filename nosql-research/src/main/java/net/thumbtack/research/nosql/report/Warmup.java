@@ -0,0 +1,180 @@
+package net.thumbtack.research.nosql.report;
+
+import net.thumbtack.research.nosql.Configurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Warm-up phase of the run, its statistics are reported separately from the measured phase.
+ * sc.warmup is either a duration in ms or "auto". In auto mode the phase ends when throughput and mean latency
+ * of the last sc.warmup.windows time series intervals have coefficient of variation below sc.warmup.cv,
+ * or after sc.warmup.max ms anyway.
+ */
+public final class Warmup {
+    private static final Logger log = LoggerFactory.getLogger(Warmup.class);
+
+    private static final String WARMUP_PROPERTY = "sc.warmup";
+    private static final String WARMUP_AUTO = "auto";
+    private static final String WINDOWS_PROPERTY = "sc.warmup.windows";
+    private static final String CV_PROPERTY = "sc.warmup.cv";
+    private static final String MAX_PROPERTY = "sc.warmup.max";
+    private static final int DEFAULT_WINDOWS = 5;
+    private static final double DEFAULT_CV = 0.1;
+    private static final long DEFAULT_MAX = 60000;
+
+    private static boolean enabled;
+    private static boolean auto;
+    private static long duration;
+    private static double maxCv;
+    private static double[] throughputs;
+    private static double[] latencies;
+    private static int intervals;
+    private static long lastInterval;
+    private static long scenarioStart;
+    private static volatile boolean warming;
+    private static volatile long measureStart;
+    private static Timer timer;
+
+    private Warmup() {}
+
+    public static synchronized void configure(Configurator config) {
+        String warmup = config.getScWarmup();
+        enabled = warmup != null && !warmup.isEmpty() && !"0".equals(warmup);
+        if (!enabled) {
+            return;
+        }
+        auto = WARMUP_AUTO.equals(warmup);
+        duration = auto ? config.getLong(MAX_PROPERTY, DEFAULT_MAX) : parseDuration(warmup);
+        int windows = Math.max(2, config.getInt(WINDOWS_PROPERTY, DEFAULT_WINDOWS));
+        maxCv = config.getDouble(CV_PROPERTY, DEFAULT_CV);
+        throughputs = new double[windows];
+        latencies = new double[windows];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the warm-up is neither a duration in ms nor "auto"
+     */
+    private static long parseDuration(String warmup) {
+        long result;
+        try {
+            result = Long.parseLong(warmup.trim());
+        } catch (NumberFormatException e) {
+            result = -1;
+        }
+        if (result < 0) {
+            throw new IllegalArgumentException(WARMUP_PROPERTY + " must be a duration in ms or \"" + WARMUP_AUTO
+                    + "\", it is \"" + warmup + "\"");
+        }
+        return result;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start warm-up phase if it is configured
+     * @param start nanoTime of the scenarios start
+     */
+    public static synchronized void start(long start) {
+        if (!enabled) {
+            return;
+        }
+        scenarioStart = start;
+        lastInterval = start;
+        intervals = 0;
+        warming = true;
+        Reporter.setPhase(Reporter.PHASE_WARMUP);
+        timer = new Timer("warmup", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                finish(auto ? "steady state is not reached in " + duration + "ms" : "done");
+            }
+        }, duration);
+        log.info("Warm-up: {}", auto ? "until steady state" : duration + "ms");
+    }
+
+    /**
+     * Check steady state by one more time series interval
+     * @param count count of operations of the interval
+     * @param latency mean latency of the interval operations
+     */
+    public static synchronized void onInterval(long count, double latency) {
+        long now = System.nanoTime();
+        if (!warming || !auto) {
+            lastInterval = now;
+            return;
+        }
+        double throughput = (double) count / Math.max(now - lastInterval, 1);
+        lastInterval = now;
+        throughputs[intervals % throughputs.length] = throughput;
+        latencies[intervals % latencies.length] = latency;
+        intervals++;
+        if (intervals >= throughputs.length
+                && count > 0
+                && getCv(throughputs) <= maxCv
+                && getCv(latencies) <= maxCv) {
+            finish("steady state is reached");
+        }
+    }
+
+    /**
+     * End warm-up phase, statistics are recorded into measured phase further
+     */
+    public static synchronized void finish(String reason) {
+        if (!warming) {
+            return;
+        }
+        Reporter.addEvent(Reporter.STOPWATCH_SCENARIO, scenarioStart);
+        measureStart = System.nanoTime();
+        Reporter.setPhase(Reporter.PHASE_MEASURE);
+        warming = false;
+        timer.cancel();
+        log.info("Warm-up finished in {}ms: {}", (measureStart - scenarioStart) / 1000000, reason);
+    }
+
+    /**
+     * Stop warm-up if the run ends before it is finished, the run is reported as warm-up then
+     */
+    public static synchronized void stop() {
+        if (warming) {
+            warming = false;
+            timer.cancel();
+            log.warn("Run ended during warm-up, there is no measured phase");
+        }
+    }
+
+    /**
+     * @return true if warm-up was finished and measured phase started
+     */
+    public static boolean isFinished() {
+        return enabled && measureStart != 0;
+    }
+
+    /**
+     * @return nanoTime of the measured phase start
+     */
+    public static long getMeasureStart() {
+        return measureStart;
+    }
+
+    private static double getCv(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        double mean = sum / values.length;
+        if (mean == 0) {
+            return 0;
+        }
+        double variance = 0;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(variance / values.length) / mean;
+    }
+}
@@ -0,0 +1,48 @@
+package net.thumbtack.research.nosql.report;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a reader swap data structures updated by wait-free writers, as in HdrHistogram.
+ * Writers wrap every update into {@link #writerCriticalSectionEnter()} / {@link #writerCriticalSectionExit(long)},
+ * the reader swaps the structures under {@link #readerLock()} and then calls {@link #flipPhase()}, which
+ * returns when all writers that could still see the old structures have left their critical sections.
+ */
+final class WriterReaderPhaser {
+    private final AtomicLong startEpoch = new AtomicLong();
+    private final AtomicLong evenEndEpoch = new AtomicLong();
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private final ReentrantLock readerLock = new ReentrantLock();
+
+    long writerCriticalSectionEnter() {
+        return startEpoch.getAndIncrement();
+    }
+
+    void writerCriticalSectionExit(long criticalValueAtEnter) {
+        (criticalValueAtEnter < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    void readerLock() {
+        readerLock.lock();
+    }
+
+    void readerUnlock() {
+        readerLock.unlock();
+    }
+
+    /**
+     * Wait for writers of the current phase. Must be called under the reader lock.
+     */
+    void flipPhase() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (endEpoch.get() != startValueAtFlip) {
+            LockSupport.parkNanos(10000);
+        }
+    }
+}
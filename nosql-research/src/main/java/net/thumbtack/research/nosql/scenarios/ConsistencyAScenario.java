@@ -2,9 +2,11 @@ package net.thumbtack.research.nosql.scenarios;
 
 import net.thumbtack.research.nosql.Configurator;
 import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.clients.ClientFuture;
 import net.thumbtack.research.nosql.report.AggregatedReporter;
+import net.thumbtack.research.nosql.report.RawEventLog;
 import net.thumbtack.research.nosql.report.Reporter;
-import org.javasimon.Split;
+import net.thumbtack.research.nosql.utils.ValueCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,60 +20,166 @@ import java.util.*;
  * <p/>
  * Test database consistency. This is simple consistency test. This is test showing how database work with different
  * consistency levels.
+ * <p/>
+ * With sc.outstanding greater than one every thread works with that count of keys and keeps one
+ * asynchronous write or read in flight for each of them.
+ * <p/>
+ * Values are encoded by {@link ValueCodec}, so a stale read tells how many versions and milliseconds it is behind.
  */
 public final class ConsistencyAScenario extends Scenario {
     private static final Logger log = LoggerFactory.getLogger(ConsistencyAScenario.class);
-    private static final Logger detailedLog = LoggerFactory.getLogger("detailed");
-    private static final Logger rawLog = LoggerFactory.getLogger("rawLog");
 
     private static final String VALE_COLUMN = "1";
     private static final String DATA_COLUMN = "2";
 
-    private String key;
+    private long keyIdx;
     private long value;
+    private ByteBuffer valueBuffer;
+    private Map<String, ByteBuffer> values;
+    private Set<String> readColumns;
+    private final ValueCodec.Version version = new ValueCodec.Version();
+    private Slot[] slots;
+    private int slotIdx;
+
+    /**
+     * Key processed by pipelined actions: it is either written or read by one in-flight request
+     */
+    private static final class Slot {
+        private final long keyIdx;
+        private long value;
+        private long written;
+        private long start;
+        private final ByteBuffer valueBuffer = ValueCodec.allocate();
+        private final Map<String, ByteBuffer> values = new HashMap<>();
+        private ClientFuture<Void> write;
+        private ClientFuture<Map<String, ByteBuffer>> read;
+
+        private Slot(long keyIdx) {
+            this.keyIdx = keyIdx;
+        }
+    }
 
     @Override
-    public void init(Client client, Configurator config) {
-        super.init(client, config);
-        key = UUID.randomUUID().toString();
+    public void init(Client client, Configurator config, ScenarioContext context) {
+        super.init(client, config, context);
+        keyIdx = keySpace.allocate();
         value = 0L;
+        readColumns = Collections.singleton(VALE_COLUMN);
+        if (outstanding > 1) {
+            slots = new Slot[outstanding];
+            for (int i = 0; i < outstanding; i++) {
+                slots[i] = new Slot(keySpace.allocate());
+                slots[i].values.put(VALE_COLUMN, slots[i].valueBuffer);
+            }
+        } else {
+            valueBuffer = ValueCodec.allocate();
+            values = new HashMap<>();
+            values.put(VALE_COLUMN, valueBuffer);
+        }
     }
 
     @Override
     protected void action() throws Exception {
-        Map<String, ByteBuffer> values = new HashMap<>();
-        values.put(VALE_COLUMN, ls.toByteBuffer(value));
-        values.put(DATA_COLUMN, ss.toByteBuffer(generateString()));
-        Set<String> cn = new HashSet<>(1);
-        cn.add(VALE_COLUMN);
-
+        if (slots != null) {
+            pipelinedAction();
+            return;
+        }
 	    // write
-	    Split writeSplit = Reporter.startEvent();
-	    db.write(key, values);
-        onWrite(writeSplit);
+	    long writeStart = Reporter.startEvent();
+        encode(value, writeStart, valueBuffer, values);
+	    db.write(key(keyIdx), values);
+        long writeEnd = System.nanoTime();
+        onWrite(writeStart, writeEnd);
+        logRaw(RawEventLog.OP_WRITE, keyIdx, writeStart, writeEnd, value);
 
 	    // read
-	    Split readSplit = Reporter.startEvent();
-	    values = db.read(key, cn);
-	    onRead(readSplit);
-        ByteBuffer buffer = values.get(VALE_COLUMN);
-        long readValue = buffer == null ? 0L : ls.fromByteBuffer(buffer);
-        // compare
+	    long readStart = Reporter.startEvent();
+	    Map<String, ByteBuffer> data = db.read(key(keyIdx), readColumns);
+        long readEnd = System.nanoTime();
+	    onRead(readStart, readEnd);
+        compare(keyIdx, value, writeStart, data, readStart, readEnd);
+        value++;
+    }
+
+    /**
+     * Move next slot one step further: complete its in-flight request and start the next one
+     */
+    private void pipelinedAction() throws Exception {
+        Slot slot = slots[slotIdx];
+        slotIdx = (slotIdx + 1) % slots.length;
+
+        if (slot.write != null) {
+            ClientFuture<Void> write = slot.write;
+            slot.write = null;
+            write.get();
+            onWrite(slot.start, write.getCompletionTime());
+            logRaw(RawEventLog.OP_WRITE, slot.keyIdx, slot.start, write.getCompletionTime(), slot.value);
+
+            slot.start = Reporter.startEvent();
+            slot.read = db.readAsync(key(slot.keyIdx), readColumns);
+            return;
+        }
+        if (slot.read != null) {
+            ClientFuture<Map<String, ByteBuffer>> read = slot.read;
+            slot.read = null;
+            Map<String, ByteBuffer> values = read.get();
+            onRead(slot.start, read.getCompletionTime());
+            compare(slot.keyIdx, slot.value, slot.written, values, slot.start, read.getCompletionTime());
+            slot.value++;
+        }
+        slot.start = Reporter.startEvent();
+        slot.written = slot.start;
+        encode(slot.value, slot.start, slot.valueBuffer, slot.values);
+        slot.write = db.writeAsync(key(slot.keyIdx), slot.values);
+    }
+
+    /**
+     * Put the version to the value buffer and the next payload to the data column
+     */
+    private void encode(long value, long writeStart, ByteBuffer valueBuffer, Map<String, ByteBuffer> values) {
+        codec.encode(value, System.currentTimeMillis(), writeStart, valueBuffer);
+        values.put(DATA_COLUMN, nextPayload());
+    }
+
+    /**
+     * @param written nanoTime of the value write
+     */
+    private void compare(long keyIdx, long value, long written, Map<String, ByteBuffer> values,
+                         long readStart, long readEnd) {
+        codec.decode(values.get(VALE_COLUMN), version);
+        long readValue = version.getSequence();
 	    if (value != readValue) {
 	        Reporter.addEvent(Reporter.STOPWATCH_VALUE_FAILURE);
 	        Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
-            AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, db.isSlow());
-	        detailedLog.warn("Written and read values for key {} are different", new Object[]{key});
-            if(rawLog.isDebugEnabled()) {
-	            rawLog.debug("Key: {}, Written: {}, Read: {} ", new Object [] { key, value, readValue } );
+            AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, Math.max(value - readValue, 0),
+                    db.isSlow());
+            if (readValue != ValueCodec.NO_SEQUENCE) {
+                Reporter.addValue(Reporter.STOPWATCH_STALENESS, written - version.getNanoTime());
             }
+            logRaw(RawEventLog.OP_STALE_READ, keyIdx, readStart, readEnd, readValue);
+        } else {
+            logRaw(RawEventLog.OP_READ, keyIdx, readStart, readEnd, readValue);
         }
-        value++;
     }
 
     @Override
     public void close() {
         super.close();
+        if (slots != null) {
+            // drain in-flight requests
+            for (Slot slot : slots) {
+                try {
+                    if (slot.write != null) {
+                        slot.write.get();
+                    }
+                    if (slot.read != null) {
+                        slot.read.get();
+                    }
+                } catch (Exception e) {
+                    log.debug(e.getMessage());
+                }
+            }
+        }
         try {
             db.close();
         } catch (Exception e) {
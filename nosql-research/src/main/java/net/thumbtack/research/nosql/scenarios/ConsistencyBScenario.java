@@ -3,15 +3,14 @@ package net.thumbtack.research.nosql.scenarios;
 import net.thumbtack.research.nosql.Configurator;
 import net.thumbtack.research.nosql.clients.Client;
 import net.thumbtack.research.nosql.report.AggregatedReporter;
+import net.thumbtack.research.nosql.report.RawEventLog;
 import net.thumbtack.research.nosql.report.Reporter;
-import org.javasimon.Split;
+import net.thumbtack.research.nosql.utils.ValueCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.UUID;
 import java.util.*;
-import java.util.concurrent.Semaphore;
 
 /**
  * User: vkornev
@@ -27,103 +26,102 @@ import java.util.concurrent.Semaphore;
  * <li>set threads count as (x+1) * n, x - is count of servers in db.hosts parameters, and n - is count of writers
  * <li>set read and write consistency to ALL
  * </ul>
+ * Writer and readers of a key form a group, see {@link GroupCoordinator}. In every round readers read the key
+ * concurrently while the writer writes the next version, see {@link ValueCodec}. Every read is checked
+ * by {@link ConsistencyChecker} as soon as it is done.
  */
 public final class ConsistencyBScenario extends Scenario {
     private static final Logger log = LoggerFactory.getLogger(ConsistencyBScenario.class);
-    private static final Logger detailedLog = LoggerFactory.getLogger("detailed");
-    private static final Logger rawLog = LoggerFactory.getLogger("rawLog");
     private static final String READ_TRIES_PROPERTY = "consistency_b.readTries";
     private static final int DEFAULT_READ_TRIES = 2;
     private static final String WRITE_DELAY_PROPERTY = "consistency_b.writeDelay";
     private static final int DEFAULT_WRITE_DELAY = 0;
+    private static final String GROUPS = "consistency_b.groups";
+    private static final String CHECKER = "consistency_b.checker";
 
     private static final String VALE_COLUMN = "1";
     private static final String DATA_COLUMN = "2";
 
-    private static int roleIdx = 0;
-    private static int rolesCount = 0;
-    private static int readersCount = 0;
-    private static String groupKey;
-    private static Map<Long, ByteBuffer> groupReadValues;
-    private static Semaphore groupReadSemaphore;
-    private static Semaphore groupAggrSemaphore;
-
-    private enum Role {
-        writer, reader;
-    }
-
-    private String key;
-    private Role role;
+    private GroupCoordinator.Member member;
+    private GroupCoordinator group;
+    private ConsistencyChecker checker;
+    private long keyIdx;
     private long value;
+    private ByteBuffer valueBuffer;
     private Map<String, ByteBuffer> writeValues;
+    private final ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+    private final ValueCodec.Version version = new ValueCodec.Version();
     private Set<String> readColumns;
-    private Map<Long, ByteBuffer> readValues;
-    private Semaphore readSemaphore;
-    private Semaphore aggrSemaphore;
     private int readTries;
     private int writeDelay;
+    private boolean left;
 
     @Override
-    public void init(Client client, Configurator config) {
+    public void init(Client client, final Configurator config, ScenarioContext context) {
         log.debug("Init base scenario");
-        super.init(client, config);
-        synchronized (ConsistencyBScenario.class) {
-            log.debug("Init scenario consistency_b");
-            if (rolesCount == 0) {
-                readersCount = config.getDbHosts().length;
-                rolesCount = readersCount + 1;
+        super.init(client, config, context);
+        checkBlocking();
+        GroupCoordinator.Groups groups = context.getShared(GROUPS, new ScenarioContext.Factory<GroupCoordinator.Groups>() {
+            @Override
+            public GroupCoordinator.Groups create() {
+                return new GroupCoordinator.Groups(keySpace, config.getDbHosts().length);
             }
-            this.writesCount = config.getScWrites() / (config.getScThreads() / rolesCount);
-            log.debug("Writes by thread {}", this.writesCount);
-            role = getRole();
-            if (role.equals(Role.writer)) {
-                log.debug("Init role writer");
-                groupKey = UUID.randomUUID().toString();
-                groupReadValues = new LinkedHashMap<>();
-                groupReadSemaphore = new Semaphore(0);
-                groupAggrSemaphore = new Semaphore(0);
-                value = 0;
-                writeValues = new HashMap<>();
-                writeValues.put(DATA_COLUMN, ss.toByteBuffer(generateString()));
-                writeDelay = config.getInt(WRITE_DELAY_PROPERTY, DEFAULT_WRITE_DELAY);
+        });
+        checker = context.getShared(CHECKER, new ScenarioContext.Factory<ConsistencyChecker>() {
+            @Override
+            public ConsistencyChecker create() {
+                return new ConsistencyChecker();
             }
-            key = groupKey;
-            readValues = groupReadValues;
-            readSemaphore = groupReadSemaphore;
-            aggrSemaphore = groupAggrSemaphore;
-
-            if (role.equals(Role.reader)) {
-                log.debug("Init role reader");
-                readColumns = new HashSet<>();
-                readColumns.add(VALE_COLUMN);
-                readTries = config.getInt(READ_TRIES_PROPERTY, DEFAULT_READ_TRIES);
-            }
-
-            log.debug("Create consistency_b scenario with role " + role.name() + " and key " + key);
+        });
+        member = groups.join();
+        group = member.getGroup();
+        keyIdx = group.getKeyIdx();
+        int rolesCount = config.getDbHosts().length + 1;
+        this.writesCount = config.getScWrites() / Math.max(config.getScThreads() / rolesCount, 1);
+        log.debug("Writes by thread {}", this.writesCount);
+        if (member.isWriter()) {
+            log.debug("Init role writer");
+            value = 0;
+            valueBuffer = ValueCodec.allocate();
+            writeValues = new HashMap<>();
+            writeValues.put(VALE_COLUMN, valueBuffer);
+            writeValues.put(DATA_COLUMN, nextPayload());
+            writeDelay = config.getInt(WRITE_DELAY_PROPERTY, DEFAULT_WRITE_DELAY);
+        } else {
+            log.debug("Init role reader");
+            readColumns = new HashSet<>();
+            readColumns.add(VALE_COLUMN);
+            readTries = config.getInt(READ_TRIES_PROPERTY, DEFAULT_READ_TRIES);
         }
+
+        log.debug("Create consistency_b scenario with role " + (member.isWriter() ? "writer" : "reader")
+                + " and key " + keyIdx);
     }
 
     @Override
     protected void action() throws Exception {
-        if (role.equals(Role.writer)) {
-            readSemaphore.release(readersCount);
+        if (!group.await()) {
+            close();
+            return;
+        }
+        if (member.isWriter()) {
             Thread.sleep(writeDelay);
             write();
-            aggrSemaphore.acquire(readersCount);
-            aggregation();
         } else {
-            readSemaphore.acquire(1);
             for (int i=0; i<readTries; i++) {
                 read();
                 Thread.yield();
             }
-            aggrSemaphore.release(1);
         }
     }
 
     @Override
     public void close() {
         super.close();
+        if (!left) {
+            left = true;
+            group.leave(member);
+        }
         try {
             db.close();
         } catch (Exception e) {
@@ -132,75 +130,33 @@ public final class ConsistencyBScenario extends Scenario {
         }
     }
 
-    private Role getRole() {
-        if (roleIdx >= rolesCount) {
-            roleIdx = 0;
-        }
-        if (roleIdx++ == 0) {
-            return Role.writer;
-        }
-        return Role.reader;
-    }
-
     private void write() throws Exception {
-        writeValues.put(VALE_COLUMN, ls.toByteBuffer(value));
-
-        Split writeSplit = Reporter.startEvent();
-        db.write(key, writeValues);
-        onWrite(writeSplit);
+        long writeStart = Reporter.startEvent();
+        codec.encode(value, System.currentTimeMillis(), writeStart, valueBuffer);
+        db.write(key(keyIdx), writeValues);
+        long writeEnd = System.nanoTime();
+        onWrite(writeStart, writeEnd);
+        logRaw(RawEventLog.OP_WRITE, keyIdx, writeStart, writeEnd, value);
         value++;
     }
 
     private void read() throws Exception {
-        synchronized (key) {
-            Split readSplit = Reporter.startEvent();
-            Map<String, ByteBuffer> data = db.read(key, readColumns);
-            readValues.put(System.nanoTime(), data.get(VALE_COLUMN));
-            onRead(readSplit);
-        }
-    }
-
-    private void aggregation() {
-        StringBuilder detailedString = new StringBuilder();
-        long oldTimestamp = 0;
-        long firstValue = 0;
-        boolean isError = false;
-        for (Long time : readValues.keySet()) {
-            long value = 0L;
-            ByteBuffer buffer = readValues.get(time);
-            if (buffer != null) {
-                value = ls.fromByteBuffer(readValues.get(time));
-            }
-            if (oldTimestamp == 0) {
-                oldTimestamp = value;
-                firstValue = value;
-            }
-            if (oldTimestamp > value) {
-                isError = true;
-            }
-            if (detailedLog.isDebugEnabled()) {
-                if (firstValue == value) {
-                    detailedString.append("1\t");
-                } else if (firstValue < value) {
-                    detailedString.append("2\t");
-                } else {
-                    detailedString.append("0\t");
-                }
-            }
-            if (rawLog.isDebugEnabled()) {
-                rawLog.debug(key + "\t{}\t{}", time, value);
-            }
-            oldTimestamp = value;
-        }
-        if (detailedLog.isDebugEnabled()) {
-            detailedLog.debug("{}\t{}", key, detailedString.toString());
-        }
-        if (isError) {
+        checker.floor(keyIdx, floor);
+        long readStart = Reporter.startEvent();
+        Map<String, ByteBuffer> data = db.read(key(keyIdx), readColumns);
+        long readEnd = System.nanoTime();
+        codec.decode(data.get(VALE_COLUMN), version);
+        onRead(readStart, readEnd);
+        logRaw(RawEventLog.OP_READ, keyIdx, readStart, readEnd, version.getSequence());
+        long staleness = checker.onRead(keyIdx, floor, version);
+        if (staleness > 0) {
+            logRaw(RawEventLog.OP_STALE_READ, keyIdx, readStart, readEnd, version.getSequence());
             Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
-            AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, db.isSlow());
+            AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, staleness, db.isSlow());
+            if (version.getSequence() != ValueCodec.NO_SEQUENCE) {
+                Reporter.addValue(Reporter.STOPWATCH_STALENESS, floor.getNanoTime() - version.getNanoTime());
+            }
         }
-
-        readValues.clear();
     }
 
 }
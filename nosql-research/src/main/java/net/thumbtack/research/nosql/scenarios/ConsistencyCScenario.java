@@ -2,15 +2,20 @@ package net.thumbtack.research.nosql.scenarios;
 
 import net.thumbtack.research.nosql.Configurator;
 import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.keys.KeyChooser;
+import net.thumbtack.research.nosql.keys.KeyChooserPool;
 import net.thumbtack.research.nosql.report.AggregatedReporter;
+import net.thumbtack.research.nosql.report.KeyRankReporter;
+import net.thumbtack.research.nosql.report.RawEventLog;
 import net.thumbtack.research.nosql.report.Reporter;
-import org.javasimon.Split;
+import net.thumbtack.research.nosql.utils.ValueCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: vkornev
@@ -26,12 +31,22 @@ import java.util.concurrent.Semaphore;
  * <li>count of servers in db.hosts parameter must be more then one
  * <li>set threads count as (x+2) * n, x - is count of servers in db.hosts parameters, and n - is count of writers
  * </ul>
+ * With sc.batchSize greater than one the writer puts the value to that count of random keys by one batch write,
+ * and the coordinator chooses that count of keys for every round, readers read them by one batch read.
+ * <p/>
+ * Every writer group has its own range of consistency_c.keySetSize key space indexes, keys are derived from them,
+ * so the set may be huge. The writer and the coordinator of the group choose keys by the {@link KeyChooser}
+ * of sc.keys distribution of the group.
+ * <p/>
+ * In every round the coordinator of the group chooses a key and readers read it concurrently, every read is
+ * checked by {@link ConsistencyChecker} as soon as it is done. Coordinator starts the next round when all
+ * readers are done.
  */
 public final class ConsistencyCScenario extends Scenario {
     private static final Logger log = LoggerFactory.getLogger(ConsistencyCScenario.class);
-    private static final Logger detailedLog = LoggerFactory.getLogger("detailed");
-    private static final Logger rawLog = LoggerFactory.getLogger("rawLog");
     private static final String KEY_SET_SIZE_PROPERTY = "consistency_c.keySetSize";
+    private static final long ACQUIRE_TIMEOUT = 100;
+    private static final String CHECKER = "consistency_c.checker";
 
     private static final String VALE_COLUMN = "1";
     private static final String DATA_COLUMN = "2";
@@ -39,37 +54,43 @@ public final class ConsistencyCScenario extends Scenario {
     private static int roleIdx = 0;
     private static int rolesCount = 0;
     private static int readersCount = 0;
-    private static String[] groupKeys;
-    private static String[] groupReadKey;
+    private static long groupKeyBase;
+    private static long[] groupReadKey;
+    private static long[] groupReadRank;
+    private static KeyChooser groupKeyChooser;
     private static boolean[] groupIsWriting;
 
-    private static Map<Long, ByteBuffer> groupReadValues;
     private static Semaphore groupReadSemaphore;
-    private static Semaphore groupAggrSemaphore;
-    private static Random groupRandomKeyIdx;
+    private static Semaphore groupDoneSemaphore;
 
     private enum Role {
-        writer, reader, aggregator;
+        writer, reader, coordinator;
     }
 
-    private String[] keys;
-    private String[] readKey;
+    private long keyBase;
+    private long[] readKey;
+    private long[] readRank;
     private boolean[] isWriting;
     private Role role;
     private long value;
+    private ByteBuffer valueBuffer;
     private Map<String, ByteBuffer> writeValues;
+    private ConsistencyChecker.Floor[] floors;
+    private List<String> batchKeys;
+    private final ValueCodec.Version version = new ValueCodec.Version();
     private Set<String> readColumns;
-    private Map<Long, ByteBuffer> readValues;
+    private ConsistencyChecker checker;
     private Semaphore readSemaphore;
-    private Semaphore aggrSemaphore;
-    private Random randomKeyIdx;
-    private int keySetSize;
+    private Semaphore doneSemaphore;
+    private KeyChooser keyChooser;
+    private long keySetSize;
 
     @Override
-    public void init(Client client, Configurator config) {
-        super.init(client, config);
+    public void init(Client client, Configurator config, ScenarioContext context) {
+        super.init(client, config, context);
+        checkBlocking();
         synchronized (ConsistencyCScenario.class) {
-            keySetSize = config.getInt(KEY_SET_SIZE_PROPERTY, 1000);
+            keySetSize = config.getLong(KEY_SET_SIZE_PROPERTY, 1000L);
             if (rolesCount == 0) {
                 readersCount = config.getDbHosts().length;
                 rolesCount = readersCount + 2;
@@ -77,35 +98,47 @@ public final class ConsistencyCScenario extends Scenario {
             role = getRole();
             if (role.equals(Role.writer)) {
                 this.writesCount = config.getScWrites() / (config.getScThreads() / rolesCount);
-                groupKeys = createKeys();
-                groupReadKey = new String[1];
+                groupKeyBase = keySpace.allocate(keySetSize);
+                groupReadKey = new long[Math.max(batchSize, 1)];
+                groupReadRank = new long[groupReadKey.length];
+                groupKeyChooser = createKeyChooser(config);
                 groupIsWriting = new boolean[1];
-                groupReadValues = new LinkedHashMap<>();
                 groupReadSemaphore = new Semaphore(readersCount);
-                groupAggrSemaphore = new Semaphore(0);
-                groupRandomKeyIdx = new Random();
-                randomKeyIdx = new Random();
+                groupDoneSemaphore = new Semaphore(0);
                 value = 0;
+                valueBuffer = ValueCodec.allocate();
                 writeValues = new HashMap<>();
-                writeValues.put(DATA_COLUMN, ss.toByteBuffer(generateString()));
+                writeValues.put(VALE_COLUMN, valueBuffer);
+                writeValues.put(DATA_COLUMN, nextPayload());
             } else {
-                randomKeyIdx = groupRandomKeyIdx;
                 writesCount = Long.MAX_VALUE;
             }
-            keys = groupKeys;
+            keyBase = groupKeyBase;
             readKey = groupReadKey;
+            readRank = groupReadRank;
+            keyChooser = groupKeyChooser;
             isWriting = groupIsWriting;
-            readValues = groupReadValues;
             readSemaphore = groupReadSemaphore;
-            aggrSemaphore = groupAggrSemaphore;
+            doneSemaphore = groupDoneSemaphore;
             setWriting(true);
 
-            if (role.equals(Role.aggregator)) {
-                setReadKey(getNextKey());
+            if (role.equals(Role.coordinator)) {
+                chooseReadKeys();
             }
             if (role.equals(Role.reader)) {
                 readColumns = new HashSet<>();
                 readColumns.add(VALE_COLUMN);
+                floors = new ConsistencyChecker.Floor[readKey.length];
+                for (int i = 0; i < floors.length; i++) {
+                    floors[i] = new ConsistencyChecker.Floor();
+                }
+                batchKeys = new ArrayList<>(readKey.length);
+                checker = context.getShared(CHECKER, new ScenarioContext.Factory<ConsistencyChecker>() {
+                    @Override
+                    public ConsistencyChecker create() {
+                        return new ConsistencyChecker();
+                    }
+                });
             }
 
             log.debug("Create consistency_c scenario with role " + role.name());
@@ -119,17 +152,24 @@ public final class ConsistencyCScenario extends Scenario {
                 write();
                 break;
             }
-            case aggregator: {
-                aggrSemaphore.acquire(readersCount);
-                aggregation();
-                setReadKey(getNextKey());
+            case coordinator: {
+                if (!acquire(doneSemaphore, readersCount)) {
+                    break;
+                }
+                chooseReadKeys();
                 readSemaphore.release(readersCount);
                 break;
             }
             case reader: {
-                readSemaphore.acquire(1);
-                read();
-                aggrSemaphore.release(1);
+                if (!acquire(readSemaphore, 1)) {
+                    break;
+                }
+                if (readKey.length > 1) {
+                    readBatch();
+                } else {
+                    read();
+                }
+                doneSemaphore.release(1);
                 break;
             }
         }
@@ -152,6 +192,19 @@ public final class ConsistencyCScenario extends Scenario {
         }
     }
 
+    /**
+     * Wait for permits while the writer is writing, readers or coordinator may be already gone after that
+     * @return false if writing is finished
+     */
+    private boolean acquire(Semaphore semaphore, int permits) throws InterruptedException {
+        while (!semaphore.tryAcquire(permits, ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (!isWriting()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Role getRole() {
         Role r;
         if (roleIdx >= rolesCount) {
@@ -159,86 +212,121 @@ public final class ConsistencyCScenario extends Scenario {
         }
         switch (roleIdx++) {
             case 0: r = Role.writer; break;
-            case 1: r = Role.aggregator; break;
+            case 1: r = Role.coordinator; break;
             default: r = Role.reader;
         }
         return r;
     }
 
     private void write() throws Exception {
-        writeValues.put(VALE_COLUMN, ls.toByteBuffer(value));
-        Split writeSplit = Reporter.startEvent();
-        db.write(getNextKey(), writeValues);
-        onWrite(writeSplit);
-        value++;
-    }
-
-    private void read() throws Exception {
-        synchronized (getReadKey()) {
-            Split readSplit = Reporter.startEvent();
-            Map<String, ByteBuffer> data = db.read(getReadKey(), readColumns);
-            readValues.put(System.nanoTime(), data.get(VALE_COLUMN));
-            onRead(readSplit);
-        }
-    }
-
-    private void aggregation() {
-        StringBuilder detailedString = new StringBuilder();
-        long oldTimestamp = 0;
-        long firstValue = 0;
-        for (Long time : readValues.keySet()) {
-            long value = 0L;
-            ByteBuffer buffer = readValues.get(time);
-            if (buffer != null) {
-                value = ls.fromByteBuffer(readValues.get(time));
-            }
-            if (oldTimestamp == 0) {
-                oldTimestamp = value;
-                firstValue = value;
+        if (batchSize > 1) {
+            Map<String, Map<String, ByteBuffer>> batch = new HashMap<>(batchSize * 2);
+            long[] batchKeys = new long[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                batchKeys[i] = keyChooser.nextWrite();
+                batch.put(key(keyBase + batchKeys[i]).toString(), writeValues);
             }
-            if (oldTimestamp > value) {
-                Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
-                AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, db.isSlow());
+            long writeStart = Reporter.startEvent();
+            codec.encode(value, System.currentTimeMillis(), writeStart, valueBuffer);
+            db.writeBatch(batch);
+            onBatchWrite(writeStart, batch.size());
+            long perKey = (System.nanoTime() - writeStart) / batchSize;
+            for (long keyIdx : batchKeys) {
+                KeyRankReporter.addWrite(keyChooser.getRank(keyIdx), perKey);
             }
-            if (detailedLog.isDebugEnabled()) {
-                if (firstValue == value) {
-                    detailedString.append("1\t");
-                } else if (firstValue < value) {
-                    detailedString.append("2\t");
-                } else {
-                    detailedString.append("0\t");
+            if (RawEventLog.isEnabled()) {
+                long writeEnd = System.nanoTime();
+                for (long keyIdx : batchKeys) {
+                    logRaw(RawEventLog.OP_WRITE, keyBase + keyIdx, writeStart, writeEnd, value);
                 }
             }
-            if (rawLog.isDebugEnabled()) {
-                rawLog.debug(getReadKey() + "\t{}\t{}", time, value);
-            }
-            oldTimestamp = value;
-        }
-        if (detailedLog.isDebugEnabled()) {
-            detailedLog.debug("{}\t{}", getReadKey(), detailedString.toString());
+        } else {
+            long keyIdx = keyChooser.nextWrite();
+            long writeStart = Reporter.startEvent();
+            codec.encode(value, System.currentTimeMillis(), writeStart, valueBuffer);
+            db.write(key(keyBase + keyIdx), writeValues);
+            long writeEnd = System.nanoTime();
+            onWrite(writeStart, writeEnd);
+            KeyRankReporter.addWrite(keyChooser.getRank(keyIdx), writeEnd - writeStart);
+            logRaw(RawEventLog.OP_WRITE, keyBase + keyIdx, writeStart, writeEnd, value);
         }
+        value++;
+    }
 
-        readValues.clear();
+    private void read() throws Exception {
+        long keyIdx = keyBase + readKey[0];
+        checker.floor(keyIdx, floors[0]);
+        long readStart = Reporter.startEvent();
+        Map<String, ByteBuffer> data = db.read(key(keyIdx), readColumns);
+        long readEnd = System.nanoTime();
+        codec.decode(data.get(VALE_COLUMN), version);
+        onRead(readStart, readEnd);
+        KeyRankReporter.addRead(readRank[0], readEnd - readStart);
+        check(keyIdx, readRank[0], floors[0], readStart, readEnd);
     }
 
-    private String[] createKeys() {
-        String[] ks = new String[keySetSize];
-        for (int i=0; i<keySetSize; i++) {
-            ks[i] = UUID.randomUUID().toString();
+    /**
+     * Read all keys of the round by one batch read, every key is checked as a separate read
+     */
+    private void readBatch() throws Exception {
+        batchKeys.clear();
+        for (int i = 0; i < readKey.length; i++) {
+            long keyIdx = keyBase + readKey[i];
+            checker.floor(keyIdx, floors[i]);
+            batchKeys.add(key(keyIdx).toString());
+        }
+        long readStart = Reporter.startEvent();
+        Map<String, Map<String, ByteBuffer>> data = db.readBatch(batchKeys, readColumns);
+        long readEnd = System.nanoTime();
+        onBatchRead(readStart, readKey.length);
+        long perKey = (readEnd - readStart) / readKey.length;
+        for (int i = 0; i < readKey.length; i++) {
+            Map<String, ByteBuffer> columns = data.get(batchKeys.get(i));
+            codec.decode(columns == null ? null : columns.get(VALE_COLUMN), version);
+            KeyRankReporter.addRead(readRank[i], perKey);
+            check(keyBase + readKey[i], readRank[i], floors[i], readStart, readEnd);
         }
-        return ks;
     }
 
-    private String getNextKey() {
-        return keys[randomKeyIdx.nextInt(keys.length)];
+    /**
+     * Publish version read from the key to the checker and report the read if it is stale
+     * @param rank popularity rank of the key in the key set of the group
+     */
+    private void check(long keyIdx, long rank, ConsistencyChecker.Floor floor, long readStart, long readEnd) {
+        logRaw(RawEventLog.OP_READ, keyIdx, readStart, readEnd, version.getSequence());
+        long staleness = checker.onRead(keyIdx, floor, version);
+        if (staleness > 0) {
+            logRaw(RawEventLog.OP_STALE_READ, keyIdx, readStart, readEnd, version.getSequence());
+            KeyRankReporter.addAnomaly(rank);
+            Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
+            AggregatedReporter.addEvent(AggregatedReporter.EVENT_OLD_VALUE, staleness, db.isSlow());
+            if (version.getSequence() != ValueCodec.NO_SEQUENCE) {
+                Reporter.addValue(Reporter.STOPWATCH_STALENESS, floor.getNanoTime() - version.getNanoTime());
+            }
+        }
     }
 
-    private String getReadKey() {
-        return readKey[0];
+    private KeyChooser createKeyChooser(Configurator config) {
+        KeyChooser chooser;
+        try {
+            chooser = KeyChooserPool.get(config.getScKeys());
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+        chooser.init(config, keySetSize);
+        return chooser;
     }
 
-    private void setReadKey(String k) {
-        readKey[0] = k;
+    /**
+     * Choose keys read in the next round, ranks are taken at once as they may change with writes
+     */
+    private void chooseReadKeys() {
+        for (int i = 0; i < readKey.length; i++) {
+            readKey[i] = keyChooser.nextRead();
+            readRank[i] = keyChooser.getRank(readKey[i]);
+        }
     }
 
     public boolean isWriting() {
@@ -0,0 +1,144 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import net.thumbtack.research.nosql.utils.ValueCodec;
+
+/**
+ * Streaming check of monotonic reads: keeps the newest version read from every key so far.
+ * <p/>
+ * Reader takes the floor of the key before its read and publishes the version it got after the read.
+ * The read is stale if the version is older than the floor, that is older than a version returned by a read
+ * ended before this one started. So every read is checked as it arrives and nothing is buffered.
+ * Sequence numbers of versions written to a key must grow, see {@link ValueCodec}.
+ * <p/>
+ * Sequence and write time of versions are kept by key index in primitive hash tables, every table is guarded
+ * by its own lock.
+ */
+final class ConsistencyChecker {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Newest version of a key read so far, reused by reads
+     */
+    static final class Floor {
+        private long sequence;
+        private long nanoTime;
+
+        /**
+         * @return sequence of the version, below {@link ValueCodec#NO_SEQUENCE} if nothing is read yet
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return nanoTime of the version write
+         */
+        long getNanoTime() {
+            return nanoTime;
+        }
+    }
+
+    /**
+     * Open addressing table of newest versions, keys are stored as key index + 1, so zero marks a free slot
+     */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] sequences = new long[INITIAL_CAPACITY];
+        private long[] times = new long[INITIAL_CAPACITY];
+        private int size;
+
+        synchronized void get(long key, int hash, Floor floor) {
+            int slot = find(keys, key + 1, hash);
+            if (keys[slot] == 0) {
+                floor.sequence = Long.MIN_VALUE;
+                floor.nanoTime = 0;
+            } else {
+                floor.sequence = sequences[slot];
+                floor.nanoTime = times[slot];
+            }
+        }
+
+        synchronized void raise(long key, int hash, long sequence, long nanoTime) {
+            int slot = find(keys, key + 1, hash);
+            if (keys[slot] == 0) {
+                keys[slot] = key + 1;
+                sequences[slot] = sequence;
+                times[slot] = nanoTime;
+                if (++size * 2 > keys.length) {
+                    resize();
+                }
+            } else if (sequences[slot] < sequence) {
+                sequences[slot] = sequence;
+                times[slot] = nanoTime;
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldSequences = sequences;
+            long[] oldTimes = times;
+            keys = new long[oldKeys.length * 2];
+            sequences = new long[oldKeys.length * 2];
+            times = new long[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = find(keys, oldKeys[i], hash(oldKeys[i] - 1));
+                    keys[slot] = oldKeys[i];
+                    sequences[slot] = oldSequences[i];
+                    times[slot] = oldTimes[i];
+                }
+            }
+        }
+
+        /**
+         * @return slot of the stored key or the free slot for it
+         */
+        private static int find(long[] keys, long stored, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != 0 && keys[slot] != stored) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    ConsistencyChecker() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get newest version returned by reads of the key completed so far
+     */
+    void floor(long keyIdx, Floor floor) {
+        int hash = hash(keyIdx);
+        segment(hash).get(keyIdx, hash, floor);
+    }
+
+    /**
+     * Publish version returned by a read of the key
+     * @param floor floor of the key taken before the read
+     * @return count of versions the version read is behind the floor, zero if the read is not stale
+     */
+    long onRead(long keyIdx, Floor floor, ValueCodec.Version version) {
+        int hash = hash(keyIdx);
+        segment(hash).raise(keyIdx, hash, version.getSequence(), version.getNanoTime());
+        return version.getSequence() < floor.sequence ? floor.sequence - version.getSequence() : 0;
+    }
+
+    private Segment segment(int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private static int hash(long keyIdx) {
+        long hash = keyIdx * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
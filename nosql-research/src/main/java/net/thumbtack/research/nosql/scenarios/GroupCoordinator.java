@@ -0,0 +1,130 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import net.thumbtack.research.nosql.keys.KeySpace;
+import net.thumbtack.research.nosql.report.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer and readers of one key. They meet at the start of every round, then the writer writes while readers
+ * read, the next round starts when all of them are done.
+ * <p/>
+ * Parties are released by {@link Phaser} when the last one arrives. Time from that arrival to the wake-up
+ * of a party is handoff latency: coordination overhead, not database latency. It is tracked by
+ * {@link Reporter#STOPWATCH_HANDOFF} and by the group itself.
+ */
+final class GroupCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(GroupCoordinator.class);
+
+    private static final double NANOS_IN_MILLI = 1000000.0;
+
+    private final long keyIdx;
+    private final Phaser phaser;
+    private int readers;
+    private volatile long advancedAt;
+    private final AtomicLong handoffs = new AtomicLong();
+    private final AtomicLong handoffTotal = new AtomicLong();
+    private final AtomicLong handoffMax = new AtomicLong();
+
+    /**
+     * Place of a scenario in the group: the first member is the writer, the others are readers
+     */
+    static final class Member {
+        private final GroupCoordinator group;
+        private final int reader;
+
+        private Member(GroupCoordinator group, int reader) {
+            this.group = group;
+            this.reader = reader;
+        }
+
+        GroupCoordinator getGroup() {
+            return group;
+        }
+
+        boolean isWriter() {
+            return reader < 0;
+        }
+    }
+
+    /**
+     * Groups of the run, scenarios join the last group until it has a writer and count of readers
+     */
+    static final class Groups {
+        private final KeySpace keySpace;
+        private final int readers;
+        private GroupCoordinator last;
+
+        Groups(KeySpace keySpace, int readers) {
+            this.keySpace = keySpace;
+            this.readers = readers;
+        }
+
+        synchronized Member join() {
+            if (last == null || last.readers >= readers) {
+                last = new GroupCoordinator(keySpace.allocate());
+                last.phaser.register();
+                return new Member(last, -1);
+            }
+            last.phaser.register();
+            return new Member(last, last.readers++);
+        }
+    }
+
+    private GroupCoordinator(long keyIdx) {
+        this.keyIdx = keyIdx;
+        this.phaser = new Phaser() {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                advancedAt = System.nanoTime();
+                return registeredParties == 0;
+            }
+        };
+    }
+
+    long getKeyIdx() {
+        return keyIdx;
+    }
+
+    /**
+     * Arrive at the barrier and wait for other members of the group
+     * @return false if the group is finished by its writer
+     */
+    boolean await() throws InterruptedException {
+        if (phaser.awaitAdvanceInterruptibly(phaser.arrive()) < 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long released = advancedAt;
+        Reporter.addEvent(Reporter.STOPWATCH_HANDOFF, released, now);
+        long handoff = now - released;
+        handoffs.incrementAndGet();
+        handoffTotal.addAndGet(handoff);
+        long max = handoffMax.get();
+        while (handoff > max && !handoffMax.compareAndSet(max, handoff)) {
+            max = handoffMax.get();
+        }
+        return true;
+    }
+
+    /**
+     * Leave the group. Readers waiting for the writer which leaves are released and find the group finished.
+     */
+    void leave(Member member) {
+        if (member.isWriter()) {
+            phaser.forceTermination();
+            long count = handoffs.get();
+            log.info("Group of key {}: {} handoffs, mean={}ms, max={}ms", new Object[]{
+                    keyIdx,
+                    count,
+                    count == 0 ? 0 : handoffTotal.get() / count / NANOS_IN_MILLI,
+                    handoffMax.get() / NANOS_IN_MILLI
+            });
+        } else {
+            phaser.arriveAndDeregister();
+        }
+    }
+}
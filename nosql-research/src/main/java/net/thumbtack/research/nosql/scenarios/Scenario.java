@@ -1,15 +1,24 @@
 package net.thumbtack.research.nosql.scenarios;
 
 import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.RunController;
 import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.keys.KeyBuffer;
+import net.thumbtack.research.nosql.keys.KeySpace;
+import net.thumbtack.research.nosql.load.Schedule;
+import net.thumbtack.research.nosql.payload.PayloadPool;
+import net.thumbtack.research.nosql.report.AllocationMeter;
+import net.thumbtack.research.nosql.report.RawEventLog;
 import net.thumbtack.research.nosql.report.Reporter;
 import net.thumbtack.research.nosql.utils.LongSerializer;
 import net.thumbtack.research.nosql.utils.StringSerializer;
-import org.javasimon.Split;
+import net.thumbtack.research.nosql.utils.ValueCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * User: vkornev
@@ -28,31 +37,84 @@ public abstract class Scenario implements Runnable {
     protected long writesCount;
     protected boolean isRunning = false;
     protected Configurator config;
+    protected ScenarioContext context;
+    protected int outstanding;
+    protected int batchSize;
 
-    private long stringSize;
+    private PayloadPool payloads;
+    protected KeySpace keySpace;
+    protected ValueCodec codec;
+    private final KeyBuffer keyBuffer = new KeyBuffer();
+    private Schedule schedule;
+    private boolean measureAllocation;
+    private int hostIdx;
+    private volatile boolean stopped;
+    /** Not a monitor, so a virtual thread blocked in action does not pin its carrier thread */
+    private final ReentrantLock runLock = new ReentrantLock();
 
-    public void init(Client client, Configurator config) {
+    /**
+     * @param context state shared by scenarios of the run
+     */
+    public void init(Client client, Configurator config, ScenarioContext context) {
         this.db = client;
         this.config = config;
+        this.context = context;
         this.writesCount = this.config.getScWrites() / this.config.getScThreads();
-        this.stringSize = this.config.getSCStringSize();
+        this.payloads = PayloadPool.get(config);
+        this.keySpace = KeySpace.get(config);
+        this.codec = new ValueCodec(context.nextWriterId());
+        this.outstanding = this.config.getScOutstanding();
+        this.batchSize = this.config.getScBatchSize();
+        this.measureAllocation = this.config.isReportAllocation() && AllocationMeter.isSupported()
+                && !RunController.isVirtualThreads(this.config);
+        this.hostIdx = Arrays.asList(this.config.getDbHosts()).indexOf(client.getHost());
+    }
+
+    /**
+     * Switch scenario to open-loop mode. Actions are started at intended times of the schedule
+     * and their latency is measured from the intended start, so stalls of database are not hidden.
+     * @param schedule intended start times of actions
+     */
+    public void setSchedule(Schedule schedule) {
+        this.schedule = schedule;
     }
 
     @Override
     public void run() {
         this.isRunning = true;
 
-        for (long i = 0; i < writesCount; i++) {
-            synchronized (this) {
+        for (long i = 0; i < writesCount && !stopped; i++) {
+            long start = 0;
+            if (schedule != null) {
+                start = schedule.next();
+                Schedule.waitUntil(start);
+                if (stopped) break;
+            }
+            runLock.lock();
+            try {
                 if (!isRunning) return;
                 try {
-                    Split split = Reporter.startEvent();
+                    if (schedule == null) {
+                        start = Reporter.startEvent();
+                    } else {
+                        Reporter.addEvent(Reporter.STOPWATCH_SCHEDULE_LAG, start);
+                    }
+                    long allocated = measureAllocation ? AllocationMeter.getAllocatedBytes() : 0;
 	                action();
-	                Reporter.addEvent(Reporter.STOPWATCH_ACTION, split);
+	                Reporter.addEvent(Reporter.STOPWATCH_ACTION, start);
+                    if (measureAllocation) {
+                        Reporter.addValue(Reporter.STOPWATCH_ALLOCATION, AllocationMeter.getAllocatedSince(allocated));
+                    }
+                } catch (InterruptedException e) {
+                    if (stopped) break;
+	                Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
+                    log.error("Cause: {}; Stack trace: {}", e, e.getStackTrace());
                 } catch (Exception e) {
 	                Reporter.addEvent(Reporter.STOPWATCH_FAILURE);
                     log.error("Cause: {}; Stack trace: {}", e, e.getStackTrace());
                 }
+            } finally {
+                runLock.unlock();
             }
         }
 
@@ -61,28 +123,94 @@ public abstract class Scenario implements Runnable {
 
     protected abstract void action() throws Exception;
 
-    public synchronized void close() {
-        isRunning = false;
+    /**
+     * Reject sc.outstanding greater than one for a scenario which keeps one request in flight only
+     */
+    protected final void checkBlocking() {
+        if (outstanding > 1) {
+            String message = "Scenario " + config.getScName() + " does not support sc.outstanding > 1";
+            log.error(message);
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Ask scenario to finish after its current action. Thread blocked by the action should be interrupted
+     * if it does not finish in time, the interruption is not counted as failure then.
+     */
+    public void stop() {
+        stopped = true;
     }
 
-    public final String generateString() {
-        char[] chars = "abcdefghijklmnopqrstuvwxyz".toCharArray();
-        StringBuilder sb = new StringBuilder();
-        Random random = new Random();
-        for (int i = 0; i < stringSize; i++) {
-            char c = chars[random.nextInt(chars.length)];
-            sb.append(c);
+    public void close() {
+        runLock.lock();
+        try {
+            isRunning = false;
+        } finally {
+            runLock.unlock();
         }
-        return sb.toString();
     }
 
-    protected void onRead(Split readSplit) {
-        Reporter.addEvent(Reporter.STOPWATCH_READ, readSplit);
-        Reporter.addEvent(Reporter.STOPWATCH_READ_TIME_SERIES, readSplit);
+    /**
+     * @return key of the index in buffer of this scenario, valid until the next call
+     */
+    protected final CharSequence key(long index) {
+        return keySpace.encode(index, keyBuffer);
+    }
+
+    /**
+     * @return pre-generated payload, see {@link PayloadPool}
+     */
+    protected final ByteBuffer nextPayload() {
+        return payloads.next();
+    }
+
+    protected void onRead(long readStart) {
+        onRead(readStart, System.nanoTime());
+    }
+
+    protected void onRead(long readStart, long readEnd) {
+        Reporter.addEvent(Reporter.STOPWATCH_READ, readStart, readEnd);
+        Reporter.addEvent(Reporter.STOPWATCH_READ_TIME_SERIES, readStart, readEnd);
+    }
+
+    /**
+     * Append operation to the raw event log if it is enabled, key index is logged as key id
+     */
+    protected void logRaw(byte op, long keyIdx, long start, long end, long value) {
+        if (RawEventLog.isEnabled()) {
+            RawEventLog.add(op, hostIdx, keyIdx, start, end - start, value);
+        }
+    }
+
+    protected void onWrite(long writeStart) {
+        onWrite(writeStart, System.nanoTime());
+    }
+
+    protected void onWrite(long writeStart, long writeEnd) {
+        Reporter.addEvent(Reporter.STOPWATCH_WRITE, writeStart, writeEnd);
+        Reporter.addEvent(Reporter.STOPWATCH_WRITE_TIME_SERIES, writeStart, writeEnd);
+    }
+
+    /**
+     * Track batch write: its own latency and latency amortized over every written record
+     */
+    protected void onBatchWrite(long writeStart, int size) {
+        long writeEnd = System.nanoTime();
+        Reporter.addEvent(Reporter.STOPWATCH_BATCH_WRITE, writeStart, writeEnd);
+        long perKey = (writeEnd - writeStart) / Math.max(size, 1);
+        Reporter.addValue(Reporter.STOPWATCH_BATCH_WRITE_KEY, perKey, size);
+        Reporter.addValue(Reporter.STOPWATCH_WRITE_TIME_SERIES, perKey, size);
     }
 
-    protected void onWrite(Split writeSplit) {
-        Reporter.addEvent(Reporter.STOPWATCH_WRITE, writeSplit);
-        Reporter.addEvent(Reporter.STOPWATCH_WRITE_TIME_SERIES, writeSplit);
+    /**
+     * Track batch read: its own latency and latency amortized over every requested record
+     */
+    protected void onBatchRead(long readStart, int size) {
+        long readEnd = System.nanoTime();
+        Reporter.addEvent(Reporter.STOPWATCH_BATCH_READ, readStart, readEnd);
+        long perKey = (readEnd - readStart) / Math.max(size, 1);
+        Reporter.addValue(Reporter.STOPWATCH_BATCH_READ_KEY, perKey, size);
+        Reporter.addValue(Reporter.STOPWATCH_READ_TIME_SERIES, perKey, size);
     }
 }
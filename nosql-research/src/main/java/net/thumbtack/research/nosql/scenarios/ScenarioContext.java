@@ -0,0 +1,42 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State shared by scenarios of one run, so scenarios keep their groups and the like here instead of static fields.
+ * Shared objects are found by name and created on the first request.
+ */
+public final class ScenarioContext {
+
+    private final Map<String, Object> shared = new HashMap<>();
+    private final AtomicInteger writers = new AtomicInteger();
+
+    /**
+     * Creates shared object on the first request
+     */
+    public interface Factory<T> {
+        T create();
+    }
+
+    /**
+     * @return object shared by all scenarios of the run under the name
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T getShared(String name, Factory<T> factory) {
+        Object object = shared.get(name);
+        if (object == null) {
+            object = factory.create();
+            shared.put(name, object);
+        }
+        return (T) object;
+    }
+
+    /**
+     * @return id of the next scenario, unique within the run, it is written with values of the scenario
+     */
+    public int nextWriterId() {
+        return writers.incrementAndGet();
+    }
+}
@@ -12,6 +12,7 @@ public final class ScenarioPool {
     public static final String SC_CONSISTENCY_A = "consistency_a";
     public static final String SC_CONSISTENCY_B = "consistency_b";
     public static final String SC_CONSISTENCY_C = "consistency_c";
+    public static final String SC_T_VISIBILITY = "t_visibility";
 
     private static final ScenarioPool instance = new ScenarioPool();
 
@@ -22,6 +23,7 @@ public final class ScenarioPool {
         databasePool.put(SC_CONSISTENCY_A, ConsistencyAScenario.class);
         databasePool.put(SC_CONSISTENCY_B, ConsistencyBScenario.class);
         databasePool.put(SC_CONSISTENCY_C, ConsistencyCScenario.class);
+        databasePool.put(SC_T_VISIBILITY, TVisibilityScenario.class);
     }
 
     public static Scenario get(String scenarioName) throws IllegalAccessException, InstantiationException {
@@ -0,0 +1,245 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.clients.ClientPool;
+import net.thumbtack.research.nosql.load.Schedule;
+import net.thumbtack.research.nosql.report.NamedThreadFactory;
+import net.thumbtack.research.nosql.report.RawEventLog;
+import net.thumbtack.research.nosql.report.Reporter;
+import net.thumbtack.research.nosql.report.VisibilityReporter;
+import net.thumbtack.research.nosql.utils.ValueCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure probabilistically bounded staleness: how long after a write is acknowledged reads see it.
+ * <p/>
+ * Every thread writes the next version of its own key, then at every of t_visibility.offsets ms after
+ * the write is acknowledged it reads the key from every host of db.hosts and checks the version got is
+ * not older than the written one, see {@link VisibilityReporter}.
+ * <p/>
+ * Reads are repeated at every of t_visibility.levels, which are values of t_visibility.levelProperty
+ * given to clients of the probes, e.g. cassandra.readConsistencyLevel with ONE,QUORUM or simulated.readReplicas
+ * with 1,2. If levels are not set, probes read at the level of the config. Writes always use the config level.
+ * Probe reads of all levels and hosts are blocking reads run by probe threads of the scenario at once,
+ * so every probe sees the same moment after the write whatever async support the client has.
+ * <p/>
+ * Some usage advices:
+ * <ul>
+ * <li>count of servers in db.hosts parameter must be more then one
+ * <li>every thread keeps levels * hosts probe clients and threads, so keep sc.threads small
+ * </ul>
+ */
+public final class TVisibilityScenario extends Scenario {
+    private static final Logger log = LoggerFactory.getLogger(TVisibilityScenario.class);
+    private static final String OFFSETS_PROPERTY = "t_visibility.offsets";
+    private static final String DEFAULT_OFFSETS = "0,1,2,5,10,50";
+    private static final String LEVEL_PROPERTY = "t_visibility.levelProperty";
+    private static final String LEVELS_PROPERTY = "t_visibility.levels";
+    private static final String DEFAULT_LEVEL = "default";
+    private static final double NANOS_IN_MILLI = 1000000.0;
+
+    private static final String VALE_COLUMN = "1";
+    private static final String DATA_COLUMN = "2";
+
+    private long keyIdx;
+    private String probeKey;
+    private long value;
+    private long[] offsets;
+    private ByteBuffer valueBuffer;
+    private Map<String, ByteBuffer> writeValues;
+    private Set<String> readColumns;
+    /** Probe clients by level, then by host */
+    private Client[][] probes;
+    /** Probe reads by index level * hosts count + host */
+    private Probe[] probeReads;
+    private final List<Future<Map<String, ByteBuffer>>> reads = new ArrayList<>();
+    private long[] readStarts;
+    private long[] readEnds;
+    private ThreadPoolExecutor probeThreads;
+    private final ValueCodec.Version version = new ValueCodec.Version();
+
+    @Override
+    public void init(Client client, Configurator config, ScenarioContext context) {
+        super.init(client, config, context);
+        checkBlocking();
+        offsets = getOffsets(config);
+        String levelProperty = config.getString(LEVEL_PROPERTY, null);
+        String[] levels = levelProperty == null ? new String[0] : config.getStringArray(LEVELS_PROPERTY);
+        if (levels.length == 0) {
+            levelProperty = null;
+            levels = new String[]{DEFAULT_LEVEL};
+        }
+        String[] hosts = config.getDbHosts();
+        if (hosts.length == 0) {
+            hosts = new String[]{null};
+        }
+        probes = new Client[levels.length][];
+        for (int level = 0; level < levels.length; level++) {
+            Configurator levelConfig = levelProperty == null
+                    ? config
+                    : config.withProperty(levelProperty, levels[level]);
+            probes[level] = new Client[hosts.length];
+            for (int host = 0; host < hosts.length; host++) {
+                probes[level][host] = createProbe(levelConfig, hosts[host]);
+            }
+        }
+        VisibilityReporter.configure(levels, offsets);
+
+        keyIdx = keySpace.allocate();
+        probeKey = key(keyIdx).toString();
+        int count = levels.length * hosts.length;
+        readStarts = new long[count];
+        readEnds = new long[count];
+        probeReads = new Probe[count];
+        for (int i = 0; i < count; i++) {
+            probeReads[i] = new Probe(probes[i / hosts.length][i % hosts.length], i);
+        }
+        probeThreads = new ThreadPoolExecutor(count, count, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("probe"));
+        probeThreads.prestartAllCoreThreads();
+        value = 0;
+        valueBuffer = ValueCodec.allocate();
+        writeValues = new HashMap<>();
+        writeValues.put(VALE_COLUMN, valueBuffer);
+        writeValues.put(DATA_COLUMN, nextPayload());
+        readColumns = Collections.singleton(VALE_COLUMN);
+        log.debug("Create t_visibility scenario with key {}, levels {}, {} hosts", new Object[]{
+                keyIdx, Arrays.toString(levels), hosts.length
+        });
+    }
+
+    @Override
+    protected void action() throws Exception {
+        long writeStart = Reporter.startEvent();
+        codec.encode(value, System.currentTimeMillis(), writeStart, valueBuffer);
+        db.write(key(keyIdx), writeValues);
+        long writeEnd = System.nanoTime();
+        onWrite(writeStart, writeEnd);
+        logRaw(RawEventLog.OP_WRITE, keyIdx, writeStart, writeEnd, value);
+
+        for (int offset = 0; offset < offsets.length; offset++) {
+            Schedule.waitUntil(writeEnd + offsets[offset]);
+            probe(offset, writeEnd);
+        }
+        value++;
+    }
+
+    /**
+     * Read the key at every level from every host at once and check the versions got
+     */
+    private void probe(int offset, long writeEnd) throws Exception {
+        try {
+            for (Probe probe : probeReads) {
+                reads.add(probeThreads.submit(probe));
+            }
+            int idx = 0;
+            for (int level = 0; level < probes.length; level++) {
+                for (Client client : probes[level]) {
+                    Map<String, ByteBuffer> data = reads.get(idx).get();
+                    onRead(readStarts[idx], readEnds[idx]);
+                    codec.decode(data.get(VALE_COLUMN), version);
+                    VisibilityReporter.addProbe(level, client.isSlow(), offset, version.getSequence() >= value,
+                            readStarts[idx] - writeEnd);
+                    idx++;
+                }
+            }
+        } finally {
+            // a failed probe must not leave the others running into the next offset
+            for (Future<Map<String, ByteBuffer>> read : reads) {
+                try {
+                    read.get();
+                } catch (Exception e) {
+                    log.debug(e.getMessage());
+                }
+            }
+            reads.clear();
+        }
+    }
+
+    /**
+     * @return start times of probe reads of the last offset, index is level * hosts count + host
+     */
+    long[] getReadStarts() {
+        return readStarts;
+    }
+
+    /**
+     * Blocking read of the key by one probe client, run by a probe thread
+     */
+    private final class Probe implements Callable<Map<String, ByteBuffer>> {
+        private final Client client;
+        private final int idx;
+
+        private Probe(Client client, int idx) {
+            this.client = client;
+            this.idx = idx;
+        }
+
+        @Override
+        public Map<String, ByteBuffer> call() throws Exception {
+            readStarts[idx] = Reporter.startEvent();
+            Map<String, ByteBuffer> data = client.read(probeKey, readColumns);
+            readEnds[idx] = System.nanoTime();
+            return data;
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        probeThreads.shutdown();
+        for (Client[] clients : probes) {
+            for (Client client : clients) {
+                close(client);
+            }
+        }
+        close(db);
+    }
+
+    private void close(Client client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+        }
+    }
+
+    private Client createProbe(Configurator config, String host) {
+        try {
+            Client client = ClientPool.get(config.getDbName());
+            client.init(config, host);
+            return client;
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return probe offsets in nanoseconds, ascending
+     */
+    private static long[] getOffsets(Configurator config) {
+        String[] values = config.getStringArray(OFFSETS_PROPERTY);
+        if (values.length == 0) {
+            values = DEFAULT_OFFSETS.split(",");
+        }
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (long) (Double.parseDouble(values[i].trim()) * NANOS_IN_MILLI);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+package net.thumbtack.research.nosql.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed layout of value written by consistency scenarios, so every read tells which write it came from:
+ * <pre>
+ *  0 int  format
+ *  4 int  writer id
+ *  8 long sequence number of the write, it grows for every key
+ * 16 long wall clock time of the write, ms
+ * 24 long nanoTime of the write, comparable within the run only
+ * 32 int  CRC32 of the bytes above
+ * </pre>
+ * Values are encoded to and decoded from buffers of the caller, nothing is allocated.
+ * Codec is not thread-safe, every thread uses its own one.
+ */
+public final class ValueCodec {
+
+    public static final int SIZE = 36;
+    /** Sequence of a value which is not found or can not be decoded, it is older than any write */
+    public static final long NO_SEQUENCE = -1;
+
+    private static final int FORMAT = 0x56414c01;
+    private static final int WRITER_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int WALL_TIME_OFFSET = 16;
+    private static final int NANO_TIME_OFFSET = 24;
+    private static final int CHECKSUM_OFFSET = 32;
+
+    private static final AtomicLong corrupted = new AtomicLong();
+
+    private final int writerId;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Decoded value, reused by reads
+     */
+    public static final class Version {
+        private int writerId;
+        private long sequence = NO_SEQUENCE;
+        private long wallTime;
+        private long nanoTime;
+
+        public int getWriterId() {
+            return writerId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        public long getNanoTime() {
+            return nanoTime;
+        }
+    }
+
+    public ValueCodec(int writerId) {
+        this.writerId = writerId;
+    }
+
+    /**
+     * @return new buffer for one value
+     */
+    public static ByteBuffer allocate() {
+        return ByteBuffer.allocate(SIZE);
+    }
+
+    /**
+     * @return count of values with wrong checksum or format read in this run
+     */
+    public static long getCorrupted() {
+        return corrupted.get();
+    }
+
+    /**
+     * Write value of this writer to the buffer from its position, the position is not moved
+     */
+    public void encode(long sequence, long wallTime, long nanoTime, ByteBuffer target) {
+        int base = target.position();
+        target.putInt(base, FORMAT);
+        target.putInt(base + WRITER_OFFSET, writerId);
+        target.putLong(base + SEQUENCE_OFFSET, sequence);
+        target.putLong(base + WALL_TIME_OFFSET, wallTime);
+        target.putLong(base + NANO_TIME_OFFSET, nanoTime);
+        target.putInt(base + CHECKSUM_OFFSET, checksum(target, base));
+    }
+
+    /**
+     * Read value from the buffer from its position, the position is not moved
+     * @return false if there is no value or it is corrupted, the version gets {@link #NO_SEQUENCE} then
+     */
+    public boolean decode(ByteBuffer source, Version version) {
+        version.sequence = NO_SEQUENCE;
+        if (source == null || source.remaining() < SIZE) {
+            if (source != null) {
+                corrupted.incrementAndGet();
+            }
+            return false;
+        }
+        int base = source.position();
+        if (source.getInt(base) != FORMAT || source.getInt(base + CHECKSUM_OFFSET) != checksum(source, base)) {
+            corrupted.incrementAndGet();
+            return false;
+        }
+        version.writerId = source.getInt(base + WRITER_OFFSET);
+        version.sequence = source.getLong(base + SEQUENCE_OFFSET);
+        version.wallTime = source.getLong(base + WALL_TIME_OFFSET);
+        version.nanoTime = source.getLong(base + NANO_TIME_OFFSET);
+        return true;
+    }
+
+    private int checksum(ByteBuffer buffer, int base) {
+        crc.reset();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + base, CHECKSUM_OFFSET);
+        } else {
+            for (int i = 0; i < CHECKSUM_OFFSET; i++) {
+                crc.update(buffer.get(base + i));
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
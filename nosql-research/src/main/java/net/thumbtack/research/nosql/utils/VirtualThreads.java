@@ -0,0 +1,45 @@
+package net.thumbtack.research.nosql.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads of Java 21+ runtime while the code is built for an older Java level
+ */
+public final class VirtualThreads {
+
+    private static final Method newVirtualThreadPerTaskExecutor = findExecutorFactory();
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * @return executor starting a new virtual thread for each task
+     * @throws UnsupportedOperationException if runtime has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+    private static Method findExecutorFactory() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // virtual threads are a preview feature before Java 21
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
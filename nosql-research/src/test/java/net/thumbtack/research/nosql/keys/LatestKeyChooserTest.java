@@ -0,0 +1,63 @@
+package net.thumbtack.research.nosql.keys;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatestKeyChooserTest {
+
+    @Test
+    public void writesWrapAround() {
+        LatestKeyChooser chooser = new LatestKeyChooser();
+        chooser.init(3, 0.99);
+        long[] expected = {0, 1, 2, 0, 1};
+        for (long key : expected) {
+            assertEquals(key, chooser.nextWrite());
+        }
+    }
+
+    @Test
+    public void rankIsDistanceFromLastWrite() {
+        LatestKeyChooser chooser = new LatestKeyChooser();
+        chooser.init(10, 0.99);
+        for (int i = 0; i < 13; i++) {
+            chooser.nextWrite();
+        }
+        // the last written key is 2
+        assertEquals(0, chooser.getRank(2));
+        assertEquals(1, chooser.getRank(1));
+        assertEquals(3, chooser.getRank(9));
+        assertEquals(9, chooser.getRank(3));
+    }
+
+    @Test
+    public void readsPreferRecentWrites() {
+        LatestKeyChooser chooser = new LatestKeyChooser();
+        chooser.init(1000, 0.99);
+        for (int i = 0; i < 1500; i++) {
+            chooser.nextWrite();
+        }
+        long[] countsByRank = new long[1000];
+        for (int i = 0; i < 100000; i++) {
+            long key = chooser.nextRead();
+            assertTrue(key >= 0 && key < 1000);
+            countsByRank[(int) chooser.getRank(key)]++;
+        }
+        assertTrue(countsByRank[0] > countsByRank[1]);
+        assertTrue(countsByRank[1] > countsByRank[100]);
+    }
+
+    @Test
+    public void choosersDoNotShareWrites() {
+        LatestKeyChooser first = new LatestKeyChooser();
+        LatestKeyChooser second = new LatestKeyChooser();
+        first.init(10, 0.99);
+        second.init(10, 0.99);
+        first.nextWrite();
+        first.nextWrite();
+        assertEquals(0, second.nextWrite());
+        assertEquals(0, first.getRank(1));
+        assertEquals(0, second.getRank(0));
+    }
+}
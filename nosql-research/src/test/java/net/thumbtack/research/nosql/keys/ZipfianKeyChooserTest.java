@@ -0,0 +1,66 @@
+package net.thumbtack.research.nosql.keys;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZipfianKeyChooserTest {
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void keysStayInRange() {
+        ZipfianKeyChooser chooser = new ZipfianKeyChooser();
+        chooser.init(10, 0.99);
+        for (int i = 0; i < SAMPLES; i++) {
+            long key = chooser.nextRead();
+            assertTrue(key >= 0 && key < 10);
+        }
+    }
+
+    @Test
+    public void frequencyFollowsRank() {
+        int keyCount = 1000;
+        double theta = 0.99;
+        ZipfianKeyChooser chooser = new ZipfianKeyChooser();
+        chooser.init(keyCount, theta);
+        long[] counts = new long[keyCount];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[(int) chooser.nextRead()]++;
+        }
+        double zeta = 0;
+        for (int i = 1; i <= keyCount; i++) {
+            zeta += 1 / Math.pow(i, theta);
+        }
+        for (int rank = 0; rank < 2; rank++) {
+            double expected = 1 / Math.pow(rank + 1, theta) / zeta;
+            assertEquals("rank " + rank, expected, counts[rank] / (double) SAMPLES, expected * 0.05);
+        }
+        assertTrue(counts[0] > counts[10] && counts[10] > counts[500]);
+    }
+
+    @Test
+    public void zeroThetaIsUniform() {
+        ZipfianKeyChooser chooser = new ZipfianKeyChooser();
+        chooser.init(4, 0);
+        long[] counts = new long[4];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[(int) chooser.nextRead()]++;
+        }
+        for (long count : counts) {
+            assertEquals(0.25, count / (double) SAMPLES, 0.01);
+        }
+    }
+
+    @Test
+    public void rankIsIndex() {
+        ZipfianKeyChooser chooser = new ZipfianKeyChooser();
+        chooser.init(100, 0.5);
+        assertEquals(42, chooser.getRank(42));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thetaOfOneIsRejected() {
+        new ZipfianKeyChooser().init(100, 1);
+    }
+}
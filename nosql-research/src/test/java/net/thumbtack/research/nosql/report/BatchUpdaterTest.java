@@ -0,0 +1,125 @@
+package net.thumbtack.research.nosql.report;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchUpdaterTest {
+
+    /**
+     * Collects flushed events, the first event may be held until released to keep the ring full
+     */
+    private static final class Collector implements BatchUpdater.FlushEvent {
+        private final List<Long> events = new ArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private int flushes;
+
+        private Collector(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onEvent(long event) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    @Test
+    public void eventsAreFlushedInOrder() {
+        Collector collector = new Collector(new CountDownLatch(0));
+        BatchUpdater updater = new BatchUpdater("order", 100);
+        updater.addEvent(0, collector);
+        for (long i = 0; i < 50; i++) {
+            updater.add(0, i);
+        }
+        updater.cleanup();
+        assertEquals(50, collector.events.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (long) collector.events.get(i));
+        }
+        assertEquals(0, updater.getDropped());
+    }
+
+    @Test
+    public void fullRingDropsEvents() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Collector collector = new Collector(release);
+        // the ring has room for 1024 events, the flush started at 1000 holds the first slot
+        BatchUpdater updater = new BatchUpdater("drop", 1000);
+        updater.addEvent(0, collector);
+        for (long i = 0; i < 1000; i++) {
+            updater.add(0, i);
+        }
+        collector.started.await();
+        for (long i = 1000; i < 1100; i++) {
+            updater.add(0, i);
+        }
+        assertEquals(76, updater.getDropped());
+        release.countDown();
+        updater.cleanup();
+        assertEquals(1024, collector.events.size());
+        assertEquals(1023, (long) collector.events.get(1023));
+    }
+
+    @Test
+    public void disabledQueueingFlushesEveryEvent() {
+        Collector collector = new Collector(new CountDownLatch(0));
+        BatchUpdater updater = new BatchUpdater("direct", 0);
+        updater.addEvent(0, collector);
+        for (long i = 0; i < 10; i++) {
+            updater.add(0, i);
+        }
+        assertEquals(10, collector.flushes);
+        assertEquals(10, collector.events.size());
+        updater.cleanup();
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        final Collector collector = new Collector(new CountDownLatch(0));
+        final BatchUpdater updater = new BatchUpdater("concurrent", 16, BatchUpdater.OverflowPolicy.block);
+        updater.addEvent(0, collector);
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long producer = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < perThread; i++) {
+                        updater.add(0, producer << 32 | i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        updater.cleanup();
+        assertEquals(0, updater.getDropped());
+        assertEquals(perThread * threads.length, collector.events.size());
+        long[] next = new long[threads.length];
+        for (long event : collector.events) {
+            int producer = (int) (event >>> 32);
+            // events of one producer keep their order
+            assertEquals(next[producer]++, event & 0xffffffffL);
+        }
+    }
+}
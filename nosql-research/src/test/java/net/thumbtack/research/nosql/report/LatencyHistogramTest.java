@@ -0,0 +1,130 @@
+package net.thumbtack.research.nosql.report;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(49, histogram.getValueAtPercentile(50));
+        assertEquals(98, histogram.getValueAtPercentile(99));
+        assertEquals(99, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getMin());
+        assertEquals(99, histogram.getMax());
+        assertEquals(49.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void percentilesStayWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int count = 1000000;
+        for (int i = 1; i <= count; i++) {
+            histogram.record(i * 37L);
+        }
+        double[] percentiles = {1, 25, 50, 90, 99, 99.9, 99.99};
+        for (double percentile : percentiles) {
+            long expected = (long) Math.ceil(percentile / 100 * count) * 37L;
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+            assertTrue(percentile + ": " + actual + " too far from " + expected, actual - expected <= expected / 64);
+        }
+        assertEquals(count * 37L, histogram.getMax());
+    }
+
+    @Test
+    public void mergeEqualsRecordingAllValues() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 0; i < 10000; i++) {
+            long fast = 1000 + i;
+            long slow = 5000000 + i * 100L;
+            first.record(fast);
+            second.record(slow);
+            all.record(fast);
+            all.record(slow);
+        }
+        first.add(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getTotal(), first.getTotal());
+        assertEquals(all.getMin(), first.getMin());
+        assertEquals(all.getMax(), first.getMax());
+        for (double percentile = 0; percentile <= 100; percentile += 2.5) {
+            assertEquals(all.getValueAtPercentile(percentile), first.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void recordingCountEqualsRecordingValueCountTimes() {
+        LatencyHistogram counted = new LatencyHistogram();
+        LatencyHistogram concurrent = new LatencyHistogram();
+        LatencyHistogram repeated = new LatencyHistogram();
+        long[] values = {5, 1000, 123456789};
+        for (long value : values) {
+            counted.record(value, 7);
+            concurrent.recordConcurrent(value, 7);
+            for (int i = 0; i < 7; i++) {
+                repeated.record(value);
+            }
+        }
+        counted.record(42, 0);
+        for (LatencyHistogram histogram : new LatencyHistogram[]{counted, concurrent}) {
+            assertEquals(repeated.getCount(), histogram.getCount());
+            assertEquals(repeated.getTotal(), histogram.getTotal());
+            assertEquals(repeated.getMin(), histogram.getMin());
+            assertEquals(repeated.getMax(), histogram.getMax());
+            for (double percentile = 0; percentile <= 100; percentile += 5) {
+                assertEquals(repeated.getValueAtPercentile(percentile), histogram.getValueAtPercentile(percentile));
+            }
+        }
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(LatencyHistogram.HIGHEST_TRACKABLE * 4);
+        assertEquals(0, histogram.getMin());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE * 4, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertTrue(histogram.getValueAtPercentile(100) >= LatencyHistogram.HIGHEST_TRACKABLE);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.recordConcurrent(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(perThread * threads.length, histogram.getCount());
+        assertEquals((long) perThread * (perThread - 1) / 2 * threads.length, histogram.getTotal());
+    }
+}
@@ -0,0 +1,94 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import net.thumbtack.research.nosql.utils.ValueCodec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistencyCheckerTest {
+    private final ValueCodec codec = new ValueCodec(1);
+    private final ByteBuffer buffer = ValueCodec.allocate();
+
+    private ValueCodec.Version version(long sequence) {
+        codec.encode(sequence, 0, sequence * 10, buffer);
+        ValueCodec.Version version = new ValueCodec.Version();
+        codec.decode(buffer, version);
+        return version;
+    }
+
+    @Test
+    public void unknownKeyHasNoFloor() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+        checker.floor(7, floor);
+        assertTrue(floor.getSequence() < ValueCodec.NO_SEQUENCE);
+        assertEquals(0, checker.onRead(7, floor, new ValueCodec.Version()));
+    }
+
+    @Test
+    public void olderReadIsStale() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+        checker.floor(7, floor);
+        assertEquals(0, checker.onRead(7, floor, version(5)));
+
+        checker.floor(7, floor);
+        assertEquals(5, floor.getSequence());
+        assertEquals(50, floor.getNanoTime());
+        assertEquals(2, checker.onRead(7, floor, version(3)));
+        assertEquals(0, checker.onRead(7, floor, version(5)));
+    }
+
+    @Test
+    public void floorIsNotLowered() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+        checker.floor(7, floor);
+        checker.onRead(7, floor, version(5));
+        checker.onRead(7, floor, version(3));
+        checker.floor(7, floor);
+        assertEquals(5, floor.getSequence());
+        assertEquals(50, floor.getNanoTime());
+    }
+
+    @Test
+    public void readsAfterFloorAreNotCompared() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor first = new ConsistencyChecker.Floor();
+        ConsistencyChecker.Floor second = new ConsistencyChecker.Floor();
+        checker.floor(7, first);
+        checker.floor(7, second);
+        // both reads started before any ended, so they may return any order of versions
+        assertEquals(0, checker.onRead(7, first, version(5)));
+        assertEquals(0, checker.onRead(7, second, version(3)));
+    }
+
+    @Test
+    public void keysAreKeptApart() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+        checker.floor(1, floor);
+        checker.onRead(1, floor, version(9));
+        checker.floor(2, floor);
+        assertEquals(0, checker.onRead(2, floor, version(1)));
+    }
+
+    @Test
+    public void versionsSurviveResize() {
+        ConsistencyChecker checker = new ConsistencyChecker();
+        ConsistencyChecker.Floor floor = new ConsistencyChecker.Floor();
+        int keys = 100000;
+        for (long key = 0; key < keys; key++) {
+            checker.floor(key, floor);
+            checker.onRead(key, floor, version(key + 1));
+        }
+        for (long key = 0; key < keys; key++) {
+            checker.floor(key, floor);
+            assertEquals(key + 1, floor.getSequence());
+            assertEquals((key + 1) * 10, floor.getNanoTime());
+        }
+    }
+}
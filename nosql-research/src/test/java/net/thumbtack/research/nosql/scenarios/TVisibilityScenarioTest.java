@@ -0,0 +1,64 @@
+package net.thumbtack.research.nosql.scenarios;
+
+import net.thumbtack.research.nosql.Configurator;
+import net.thumbtack.research.nosql.clients.Client;
+import net.thumbtack.research.nosql.clients.SimulatedClient;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TVisibilityScenarioTest {
+    private static final long LATENCY = 50000000;
+
+    private static Configurator createConfig() throws IOException {
+        File file = File.createTempFile("t_visibility", ".properties");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("db.name = simulated\n"
+                    + "db.hosts = replica1, replica2, replica3\n"
+                    + "sc.name = t_visibility\n"
+                    + "sc.threads = 1\n"
+                    + "sc.writes = 1\n"
+                    + "sc.stringSize = 100\n"
+                    + "simulated.latency = constant:" + LATENCY / 1000000 + "\n"
+                    + "t_visibility.offsets = 0, 1\n"
+                    + "t_visibility.levelProperty = simulated.readReplicas\n"
+                    + "t_visibility.levels = 1, 2\n");
+        }
+        return new Configurator(file.getPath());
+    }
+
+    @Test
+    public void probesOfOneOffsetStartTogether() throws Exception {
+        Configurator config = createConfig();
+        Client client = new SimulatedClient();
+        client.prepare(config);
+        client.init(config, null);
+        TVisibilityScenario scenario = new TVisibilityScenario();
+        scenario.init(client, config, new ScenarioContext());
+        try {
+            // the first actions load classes and start threads
+            for (int i = 0; i < 3; i++) {
+                scenario.action();
+            }
+            long[] starts = scenario.getReadStarts();
+            assertEquals(6, starts.length);
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (long start : starts) {
+                first = Math.min(first, start);
+                last = Math.max(last, start);
+            }
+            // probes done one after another would start at least a latency apart
+            assertTrue("probes started within " + (last - first) + "ns", last - first < LATENCY / 2);
+        } finally {
+            scenario.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.thumbtack.research.nosql.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ValueCodecTest {
+    private final ValueCodec codec = new ValueCodec(42);
+    private final ValueCodec.Version version = new ValueCodec.Version();
+
+    private void assertRoundTrip(ByteBuffer buffer) {
+        int position = buffer.position();
+        codec.encode(7, 1234567890123L, -5, buffer);
+        assertEquals(position, buffer.position());
+        assertTrue(codec.decode(buffer, version));
+        assertEquals(position, buffer.position());
+        assertEquals(42, version.getWriterId());
+        assertEquals(7, version.getSequence());
+        assertEquals(1234567890123L, version.getWallTime());
+        assertEquals(-5, version.getNanoTime());
+    }
+
+    @Test
+    public void heapBufferRoundTrip() {
+        assertRoundTrip(ValueCodec.allocate());
+    }
+
+    @Test
+    public void directBufferRoundTrip() {
+        assertRoundTrip(ByteBuffer.allocateDirect(ValueCodec.SIZE));
+    }
+
+    @Test
+    public void valueAtOffsetRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(ValueCodec.SIZE + 16);
+        buffer.position(16);
+        assertRoundTrip(buffer);
+        ByteBuffer slice = buffer.slice();
+        assertTrue(codec.decode(slice, version));
+        assertEquals(7, version.getSequence());
+    }
+
+    @Test
+    public void heapAndDirectChecksumsMatch() {
+        ByteBuffer heap = ValueCodec.allocate();
+        codec.encode(3, 4, 5, heap);
+        ByteBuffer direct = ByteBuffer.allocateDirect(ValueCodec.SIZE);
+        direct.put(heap.duplicate());
+        direct.flip();
+        assertTrue(codec.decode(direct, version));
+        assertEquals(3, version.getSequence());
+    }
+
+    @Test
+    public void checksumMismatchIsCounted() {
+        ByteBuffer buffer = ValueCodec.allocate();
+        codec.encode(7, 1, 2, buffer);
+        buffer.put(10, (byte) (buffer.get(10) ^ 1));
+        long corrupted = ValueCodec.getCorrupted();
+        assertFalse(codec.decode(buffer, version));
+        assertEquals(ValueCodec.NO_SEQUENCE, version.getSequence());
+        assertEquals(corrupted + 1, ValueCodec.getCorrupted());
+    }
+
+    @Test
+    public void shortValueIsCorrupted() {
+        long corrupted = ValueCodec.getCorrupted();
+        assertFalse(codec.decode(ByteBuffer.allocate(ValueCodec.SIZE - 1), version));
+        assertEquals(corrupted + 1, ValueCodec.getCorrupted());
+    }
+
+    @Test
+    public void missingValueIsNotCorrupted() {
+        long corrupted = ValueCodec.getCorrupted();
+        assertFalse(codec.decode(null, version));
+        assertEquals(ValueCodec.NO_SEQUENCE, version.getSequence());
+        assertEquals(corrupted, ValueCodec.getCorrupted());
+    }
+}